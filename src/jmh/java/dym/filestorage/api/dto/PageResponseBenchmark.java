@@ -0,0 +1,71 @@
+package dym.filestorage.api.dto;
+
+import dym.filestorage.api.common.ContentTypeStatus;
+import dym.filestorage.api.common.FileStatus;
+import dym.filestorage.api.common.Visibility;
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping a page of file metadata to the list response, including the cursor of the next page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageResponseBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int pageSize;
+
+    private Window<FileMetadata> window;
+
+    @Setup
+    public void setUp() {
+        List<FileMetadata> files = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            files.add(new FileMetadata()
+                    .setId(UUID.randomUUID().toString())
+                    .setFileName("file-" + i + ".txt")
+                    .setUserId("user-1234")
+                    .setVisibility(Visibility.PUBLIC)
+                    .setTags(Set.of("logs", "archive"))
+                    .setUploadDate(System.currentTimeMillis() - i)
+                    .setContentType("text/plain")
+                    .setContentTypeStatus(ContentTypeStatus.DETECTED)
+                    .setSize(1024L * i)
+                    .setStatus(FileStatus.ACTIVE)
+                    .setInStorageId(UUID.randomUUID().toString()));
+        }
+        window = Window.from(files,
+                index -> ScrollPosition.forward(Map.of("uploadDate", files.get(index).getUploadDate(),
+                        "_id", files.get(index).getId())),
+                true);
+    }
+
+    @Benchmark
+    public PageResponse<FileMetadataDto> toPageResponse() {
+        return PageResponse.from(window, FileMetadataDto::from, 0, pageSize);
+    }
+}
@@ -0,0 +1,49 @@
+package dym.filestorage.api.helper;
+
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building storage keys and their sharded form, done on every upload and download.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileHelperBenchmark {
+
+    private FileMetadata metadata;
+    private String fileKey;
+
+    @Setup
+    public void setUp() {
+        metadata = new FileMetadata()
+                .setUserId("user-1234")
+                .setInStorageId(UUID.randomUUID().toString());
+        fileKey = FileHelper.fileKeyFrom(metadata);
+    }
+
+    @Benchmark
+    public String fileKeyFrom() {
+        return FileHelper.fileKeyFrom(metadata);
+    }
+
+    @Benchmark
+    public String shardedKeyFrom() {
+        return FileHelper.shardedKeyFrom(fileKey, 2);
+    }
+}
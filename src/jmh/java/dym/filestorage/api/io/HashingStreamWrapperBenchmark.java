@@ -0,0 +1,64 @@
+package dym.filestorage.api.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of hashing an upload stream, per digest algorithm and with or without pipelining.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashingStreamWrapperBenchmark {
+
+    private static final int CONTENT_SIZE = 16 * 1024 * 1024;
+
+    @Param({"SHA-256", "SHA-512", "CRC32C"})
+    public String algorithm;
+
+    @Param({"false", "true"})
+    public boolean pipelined;
+
+    @Param({"65536"})
+    public int bufferSize;
+
+    private byte[] content;
+    private byte[] buffer;
+
+    @Setup
+    public void setUp() {
+        content = new byte[CONTENT_SIZE];
+        new Random(42).nextBytes(content);
+        buffer = new byte[bufferSize];
+    }
+
+    // One operation hashes 16 MB
+    @Benchmark
+    public byte[] hash() throws IOException {
+        StreamDigest digest = StreamDigest.of(algorithm);
+        try (StreamDigest streamDigest = pipelined ? new PipelinedDigest(digest, 4) : digest) {
+            HashingStreamWrapper wrapper = new HashingStreamWrapper(new ByteArrayInputStream(content), streamDigest);
+            while (wrapper.read(buffer) != -1) {
+                // Consume the stream
+            }
+            return wrapper.getHash();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.io.BufferPool;
+import dym.filestorage.api.io.DurabilityMode;
+import dym.filestorage.api.io.FileSyncer;
+import dym.filestorage.api.io.MappedFileRegistry;
+import dym.filestorage.api.io.PipelinedFileWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Storing and loading files of different sizes through the local storage, with different write buffer sizes.
+ * Files are not synced, so the numbers show the cost of the code path rather than of the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalStorageServiceBenchmark {
+
+    @Param({"4096", "65536", "1048576", "16777216"})
+    public int fileSize;
+
+    @Param({"65536", "262144", "1048576"})
+    public int bufferSize;
+
+    @Param({"4"})
+    public int pipelineDepth;
+
+    private Path location;
+    private LocalStorageService storageService;
+    private byte[] content;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        location = Files.createTempDirectory("storage-benchmark");
+        PipelinedFileWriter fileWriter = new PipelinedFileWriter(BufferPool.direct("benchmark", bufferSize, 64), pipelineDepth);
+        storageService = new LocalStorageService(location.toString(), 2, fileWriter,
+                FileSyncer.of(DurabilityMode.NONE, Duration.ZERO, 1), new MappedFileRegistry(0, 0, Duration.ZERO));
+
+        content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        storageService.saveFile(new ByteArrayInputStream(content), "user/stored");
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeSavedFiles() throws IOException {
+        for (long i = 0; i < counter; i++) {
+            storageService.deleteFile("user/file-" + i);
+        }
+        counter = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(location)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void saveFile() throws IOException {
+        storageService.saveFile(new ByteArrayInputStream(content), "user/file-" + counter++);
+    }
+
+    @Benchmark
+    public long loadFile() throws IOException {
+        try (InputStream inputStream = storageService.loadFile("user/stored")) {
+            return inputStream.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+}
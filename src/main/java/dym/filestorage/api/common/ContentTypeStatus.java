@@ -0,0 +1,20 @@
+package dym.filestorage.api.common;
+
+public enum ContentTypeStatus {
+    /**
+     * Content type was provided by the client and is trusted as is.
+     */
+    DECLARED,
+    /**
+     * Content type is waiting to be detected from the stored content.
+     */
+    PENDING,
+    /**
+     * Content type has been detected from the stored content.
+     */
+    DETECTED,
+    /**
+     * Content type detection failed, the declared content type is kept.
+     */
+    FAILED
+}
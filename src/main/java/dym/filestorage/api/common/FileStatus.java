@@ -5,6 +5,10 @@ public enum FileStatus {
      * File is being uploaded or processed.
      */
     PENDING,
+    /**
+     * Upload session is being completed, its parts are being stored.
+     */
+    COMPLETING,
     /**
      * File has been successfully uploaded and is available.
      */
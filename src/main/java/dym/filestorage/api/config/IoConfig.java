@@ -0,0 +1,61 @@
+package dym.filestorage.api.config;
+
+import dym.filestorage.api.io.BufferPool;
+import dym.filestorage.api.io.DurabilityMode;
+import dym.filestorage.api.io.FileSyncer;
+import dym.filestorage.api.io.MappedFileRegistry;
+import dym.filestorage.api.io.PipelinedFileWriter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Shared buffers for copying file content: direct buffers for writes to the disk,
+ * and heap buffers for writing downloads to the servlet output stream, which only accepts arrays.
+ * Both pools are published as buffer.pool.* metrics.
+ * Also the syncer that makes stored files durable, and the shared memory mappings for reads.
+ */
+@Configuration
+public class IoConfig {
+
+    @Bean
+    public BufferPool storageBufferPool(@Value("${storage.write.buffer-size:262144}") int bufferSize,
+                                        @Value("${storage.write.max-pooled-buffers:256}") int maxPooled) {
+        return BufferPool.direct("storage", bufferSize, maxPooled);
+    }
+
+    @Bean
+    public BufferPool downloadBufferPool(@Value("${downloads.buffer-size:65536}") int bufferSize,
+                                         @Value("${downloads.max-pooled-buffers:256}") int maxPooled) {
+        return BufferPool.heap("download", bufferSize, maxPooled);
+    }
+
+    @Bean
+    public PipelinedFileWriter pipelinedFileWriter(@Qualifier("storageBufferPool") BufferPool storageBufferPool,
+                                                   @Value("${storage.write.pipeline-depth:4}") int depth) {
+        return new PipelinedFileWriter(storageBufferPool, depth);
+    }
+
+    @Bean
+    public FileSyncer fileSyncer(@Value("${storage.durability:group-commit}") DurabilityMode durability,
+                                 @Value("${storage.group-commit.window:2ms}") Duration window,
+                                 @Value("${storage.group-commit.max-batch:256}") int maxBatch) {
+        return FileSyncer.of(durability, window, maxBatch);
+    }
+
+    @Bean
+    public MappedFileRegistry mappedFileRegistry(@Value("${storage.mmap.min-size:16384}") long minSize,
+                                                 @Value("${storage.mmap.max-size:0}") long maxSize,
+                                                 @Value("${storage.mmap.idle-timeout:30s}") Duration idleTimeout) {
+        return new MappedFileRegistry(minSize, maxSize, idleTimeout);
+    }
+
+    @Bean
+    public PooledResourceHttpMessageConverter pooledResourceHttpMessageConverter(
+            @Qualifier("downloadBufferPool") BufferPool downloadBufferPool) {
+        return new PooledResourceHttpMessageConverter(downloadBufferPool);
+    }
+}
@@ -0,0 +1,49 @@
+package dym.filestorage.api.config;
+
+import dym.filestorage.api.io.BufferPool;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes Resource response bodies through pooled buffers, instead of a new buffer per response.
+ * Registered as a bean, it takes precedence over the default converter.
+ */
+public class PooledResourceHttpMessageConverter extends ResourceHttpMessageConverter {
+
+    private final BufferPool bufferPool;
+
+    public PooledResourceHttpMessageConverter(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    protected void writeContent(Resource resource, HttpOutputMessage outputMessage) throws IOException {
+        // Same contract as the default: a missing or already consumed resource results in an empty body
+        InputStream inputStream;
+        try {
+            inputStream = resource.getInputStream();
+        } catch (FileNotFoundException e) {
+            return;
+        }
+
+        ByteBuffer buffer = bufferPool.acquire();
+        try (inputStream) {
+            byte[] array = buffer.array();
+            OutputStream outputStream = outputMessage.getBody();
+            int bytesRead;
+            while ((bytesRead = inputStream.read(array)) != -1) {
+                outputStream.write(array, 0, bytesRead);
+            }
+            outputStream.flush();
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+}
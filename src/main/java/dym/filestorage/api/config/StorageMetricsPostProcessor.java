@@ -0,0 +1,62 @@
+package dym.filestorage.api.config;
+
+import dym.filestorage.api.service.FileStorageService;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Observes every {@link FileStorageService} operation as "storage.operation", tagged with the "operation"
+ * and the "storage" implementation, so that a caching storage and the storage behind it are told apart.
+ * Loads only cover opening the content, reading it is part of the download.
+ * <p>
+ * The storages are proxied by class, because some beans depend on a concrete storage implementation.
+ */
+@Component
+public class StorageMetricsPostProcessor implements BeanPostProcessor {
+
+    public static final String STORAGE_OPERATION = "storage.operation";
+
+    private static final Set<String> OPERATIONS = Stream.of(FileStorageService.class.getMethods())
+            .map(Method::getName)
+            .collect(Collectors.toUnmodifiableSet());
+
+    // Resolved lazily, post processors are created before the registry
+    private final ObjectProvider<ObservationRegistry> observationRegistry;
+
+    public StorageMetricsPostProcessor(ObjectProvider<ObservationRegistry> observationRegistry) {
+        this.observationRegistry = observationRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof FileStorageService)) {
+            return bean;
+        }
+
+        String storage = bean.getClass().getSimpleName();
+        ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+            String operation = invocation.getMethod().getName();
+            if (!OPERATIONS.contains(operation)) {
+                return invocation.proceed();
+            }
+            return Observation.createNotStarted(STORAGE_OPERATION,
+                            observationRegistry.getIfAvailable(() -> ObservationRegistry.NOOP))
+                    .lowCardinalityKeyValue("operation", operation)
+                    .lowCardinalityKeyValue("storage", storage)
+                    .observeChecked(invocation::proceed);
+        });
+        return proxyFactory.getProxy(bean.getClass().getClassLoader());
+    }
+}
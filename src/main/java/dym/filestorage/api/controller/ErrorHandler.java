@@ -1,8 +1,10 @@
 package dym.filestorage.api.controller;
 
 import dym.filestorage.api.exception.ApiException;
+import dym.filestorage.api.exception.UploadRejectedException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ProblemDetail;
 import org.springframework.http.ResponseEntity;
@@ -20,6 +22,14 @@ public class ErrorHandler {
         return ResponseEntity.of(ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, e.getMessage())).build();
     }
 
+    @ExceptionHandler(UploadRejectedException.class)
+    public ResponseEntity<ProblemDetail> handleUploadRejectedException(UploadRejectedException e) {
+        log.debug("Upload rejected: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, e.getRetryAfter().toSeconds())))
+                .body(ProblemDetail.forStatusAndDetail(HttpStatus.TOO_MANY_REQUESTS, e.getMessage()));
+    }
+
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<ProblemDetail> handleException(MethodArgumentNotValidException e) {
         return ResponseEntity.of(
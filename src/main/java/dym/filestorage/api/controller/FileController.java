@@ -1,22 +1,33 @@
 package dym.filestorage.api.controller;
 
 import dym.filestorage.api.dto.*;
+import dym.filestorage.api.helper.SendfileHelper;
+import dym.filestorage.api.io.GzipDecompressingResource;
 import dym.filestorage.api.persistance.entity.FileMetadata;
+import dym.filestorage.api.service.ArchiveService;
+import dym.filestorage.api.service.CompressionPolicy;
 import dym.filestorage.api.service.FileService;
+import dym.filestorage.api.service.UploadAdmissionService;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.data.util.Pair;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -25,11 +36,12 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import static org.springframework.util.StringUtils.hasText;
+
 @Slf4j
 @Valid
 @RestController
@@ -38,41 +50,39 @@ import java.util.Map;
 public class FileController {
 
     private final FileService fileService;
+    private final UploadAdmissionService uploadAdmissionService;
+    private final ArchiveService archiveService;
 
     private @Value("${downloads.base-url}") String baseUrl;
+    private @Value("${downloads.sendfile-min-size:49152}") long sendfileMinSize;
 
     @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<UploadResponse> uploadFileStream(
             @Valid UploadRequest uploadRequest,
             HttpServletRequest httpRequest) throws URISyntaxException, IOException {
 
-        try (InputStream inputStream = httpRequest.getInputStream()) {
+        // Rejected uploads are answered before their content is read
+        try (UploadAdmissionService.Admission admission = uploadAdmissionService.admit(uploadRequest.userId());
+             InputStream inputStream = admission.throttle(httpRequest.getInputStream())) {
 
             var contentType = httpRequest.getContentType();
             FileMetadata metadata = fileService.uploadFile(inputStream, contentType, uploadRequest);
             URI uri = new URI(baseUrl).resolve(metadata.getInStorageId());
 
-            UploadResponse response = new UploadResponse(
-                    metadata.getFileName(),
-                    metadata.getContentType(),
-                    metadata.getVisibility(),
-                    metadata.getSize(),
-                    Instant.ofEpochMilli(metadata.getUploadDate()),
-                    uri.toString()
-            );
-
-            return ResponseEntity.created(uri).body(response);
+            return ResponseEntity.created(uri).body(UploadResponse.from(metadata, uri.toString()));
         }
     }
 
     @GetMapping(path = "/public", produces = MediaType.APPLICATION_JSON_VALUE)
     public PageResponse<FileMetadataDto> listPublicFiles(@Valid ListRequest listRequest) {
-        return toPageResponse(fileService.listPublicFiles(listRequest), listRequest.getPage(), listRequest.getSize());
+        return PageResponse.from(fileService.listPublicFiles(listRequest), FileMetadataDto::from,
+                pageNumberOf(listRequest), listRequest.getSize());
     }
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
     public PageResponse<FileMetadataDto> listUserFiles(@Valid ListRequest listRequest) {
-        return toPageResponse(fileService.listUserFiles(listRequest), listRequest.getPage(), listRequest.getSize());
+        return PageResponse.from(fileService.listUserFiles(listRequest), FileMetadataDto::from,
+                pageNumberOf(listRequest), listRequest.getSize());
     }
 
     @GetMapping(path = "/tags", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -83,21 +93,76 @@ public class FileController {
     }
 
     @GetMapping("/{inStorageId}")
-    public ResponseEntity<InputStreamResource> downloadFile(
+    public ResponseEntity<Resource> downloadFile(
             @PathVariable String inStorageId,
-            @RequestParam(value = "userId", required = false) String userId) {
+            @RequestParam(value = "userId", required = false) String userId,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) {
         try {
-            Pair<FileMetadata, InputStream> file = fileService.getFile(inStorageId, userId);
+            Pair<FileMetadata, Resource> file = fileService.getFile(inStorageId, userId);
 
             FileMetadata metadata = file.getFirst();
+            Resource resource = file.getSecond();
+
+            // Compressed content is sent as stored to clients that accept it, and decompressed for the others
+            boolean compressed = CompressionPolicy.GZIP.equals(metadata.getContentEncoding());
+            boolean sendCompressed = compressed && acceptsGzip(httpRequest);
+            long size = sendCompressed ? metadata.getStoredSize() : metadata.getSize();
+            if (compressed) {
+                httpResponse.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                if (!sendCompressed) {
+                    resource = new GzipDecompressingResource(resource, size);
+                }
+            }
+
+            // Stored content never changes for a given inStorageId, so the content hash is a strong validator.
+            // Each encoding is a different representation, and needs its own validator
+            String eTag = "\"" + metadata.getHash() + (sendCompressed ? "-" + CompressionPolicy.GZIP : "") + "\"";
+            if (new ServletWebRequest(httpRequest, httpResponse).checkNotModified(eTag, metadata.getUploadDate())) {
+                // 304 or 412 status and the validators are already set on the response
+                return null;
+            }
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.CONTENT_DISPOSITION,
+                    "attachment; filename=\"" + URLEncoder.encode(metadata.getFileName(), StandardCharsets.UTF_8) + "\"");
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            headers.setETag(eTag);
+            headers.setLastModified(metadata.getUploadDate());
+            // Files stored before a provisional type was recorded may have none until detection finishes
+            headers.setContentType(metadata.getContentType() == null
+                    ? MediaType.APPLICATION_OCTET_STREAM
+                    : MediaType.parseMediaType(metadata.getContentType()));
+            if (sendCompressed) {
+                headers.set(HttpHeaders.CONTENT_ENCODING, CompressionPolicy.GZIP);
+            }
 
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename=\"" + URLEncoder.encode(metadata.getFileName(), StandardCharsets.UTF_8) + "\"")
-                    .lastModified(metadata.getUploadDate())
-                    .contentLength(metadata.getSize())
-                    .contentType(MediaType.parseMediaType(metadata.getContentType()))
-                    .body(new InputStreamResource(file.getSecond()));
+            String rangeHeader = httpRequest.getHeader(HttpHeaders.RANGE);
+            if (rangeHeader != null && !isRangeApplicable(httpRequest, eTag, metadata.getUploadDate())) {
+                // Spring applies the Range header to any file resource body, so the full content is passed as a plain stream
+                return ResponseEntity.ok().headers(headers)
+                        .contentLength(size)
+                        .body(new InputStreamResource(resource.getInputStream()));
+            }
+
+            List<HttpRange> ranges;
+            try {
+                ranges = rangeHeader == null ? List.of() : HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                return rangeNotSatisfiable(size);
+            }
+
+            if (ranges.size() > 1 || !canSendfile(httpRequest, resource, size)) {
+                // Spring MVC turns the resource into 206 single or multipart/byteranges responses on its own
+                return ResponseEntity.ok().headers(headers).body(resource);
+            }
+
+            if (ranges.isEmpty()) {
+                SendfileHelper.sendfile(httpRequest, resource, 0, size);
+                return ResponseEntity.ok().headers(headers).contentLength(size).build();
+            }
+
+            return sendfileRange(httpRequest, headers, resource, ranges.getFirst(), size);
         } catch (FileNotFoundException | SecurityException e) {
             log.error("File download failed for user: " + userId, e);
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found", e);
@@ -106,6 +171,41 @@ public class FileController {
         }
     }
 
+    /**
+     * Streams the files with the ids in the body, or the user's files selected by the list parameters, as a ZIP archive.
+     * The metadata is resolved before the response starts, so missing files are reported with 404.
+     */
+    @PostMapping(path = "/archive")
+    public ResponseEntity<StreamingResponseBody> downloadArchive(
+            @Valid ListRequest listRequest,
+            @RequestBody(required = false) ArchiveRequest archiveRequest) {
+        return archive(archiveRequest == null ? null : archiveRequest.ids(), listRequest);
+    }
+
+    /**
+     * Streams the user's files selected by the list parameters as a ZIP archive.
+     */
+    @GetMapping(path = "/archive")
+    public ResponseEntity<StreamingResponseBody> downloadArchive(@Valid ListRequest listRequest) {
+        return archive(null, listRequest);
+    }
+
+    private ResponseEntity<StreamingResponseBody> archive(List<String> ids, ListRequest listRequest) {
+        List<FileMetadata> files;
+        try {
+            files = archiveService.findFiles(ids, listRequest);
+        } catch (FileNotFoundException e) {
+            log.error("Archive download failed for user: " + listRequest.getUserId(), e);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found", e);
+        }
+
+        StreamingResponseBody body = outputStream -> archiveService.writeArchive(files, outputStream);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\"")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
+    }
+
     @DeleteMapping("/{inStorageId}")
     public ResponseEntity<Void> deleteFile(
             @PathVariable String inStorageId,
@@ -121,11 +221,101 @@ public class FileController {
         }
     }
 
-    private PageResponse<FileMetadataDto> toPageResponse(List<FileMetadata> data, int page, int size) {
-        List<FileMetadataDto> responseData = data.stream()
-                .map(FileMetadataDto::from)
-                .toList();
-        return new PageResponse<>(page, size, responseData);
+    private ResponseEntity<Resource> sendfileRange(HttpServletRequest httpRequest,
+                                                   HttpHeaders headers,
+                                                   Resource resource,
+                                                   HttpRange range,
+                                                   long size) throws IOException {
+        long start;
+        long end;
+        try {
+            start = range.getRangeStart(size);
+            end = range.getRangeEnd(size);
+        } catch (IllegalArgumentException e) {
+            return rangeNotSatisfiable(size);
+        }
+
+        SendfileHelper.sendfile(httpRequest, resource, start, end + 1);
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size)
+                .contentLength(end - start + 1)
+                .build();
+    }
+
+    private ResponseEntity<Resource> rangeNotSatisfiable(long size) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                .build();
+    }
+
+    private boolean canSendfile(HttpServletRequest httpRequest, Resource resource, long size) {
+        // Small files are cheaper to copy than to hand over to the container
+        return HttpMethod.GET.matches(httpRequest.getMethod())
+                && size >= sendfileMinSize
+                && SendfileHelper.isSupported(httpRequest, resource);
+    }
+
+    /**
+     * Evaluates Accept-Encoding: gzip is acceptable if listed, or else covered by "*", with a non-zero quality value.
+     * An explicit gzip entry takes precedence over "*" wherever it is listed.
+     */
+    private boolean acceptsGzip(HttpServletRequest httpRequest) {
+        String acceptEncoding = httpRequest.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzipQuality = null;
+        Double wildcardQuality = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase(CompressionPolicy.GZIP) || name.equalsIgnoreCase("x-gzip")) {
+                gzipQuality = Math.max(quality(parts), gzipQuality == null ? 0 : gzipQuality);
+            } else if (name.equals("*")) {
+                wildcardQuality = quality(parts);
+            }
+        }
+        Double quality = gzipQuality != null ? gzipQuality : wildcardQuality;
+        return quality != null && quality > 0;
+    }
+
+    // The q parameter of an Accept-Encoding entry, 1 if absent. A malformed value refuses the coding
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.regionMatches(true, 0, "q=", 0, 2)) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Evaluates If-Range: a Range request only applies if the client's validator still matches the stored file.
+     */
+    private boolean isRangeApplicable(HttpServletRequest httpRequest, String eTag, long lastModified) {
+        String ifRange = httpRequest.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(eTag);
+        }
+        try {
+            long ifRangeDate = httpRequest.getDateHeader(HttpHeaders.IF_RANGE);
+            return ifRangeDate / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // A cursor takes precedence over the page number, which would not describe the page
+    private static Integer pageNumberOf(ListRequest listRequest) {
+        return hasText(listRequest.getCursor()) ? null : listRequest.getPage();
     }
 
 }
\ No newline at end of file
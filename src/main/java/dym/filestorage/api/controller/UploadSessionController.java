@@ -0,0 +1,102 @@
+package dym.filestorage.api.controller;
+
+import dym.filestorage.api.dto.UploadPartResponse;
+import dym.filestorage.api.dto.UploadRequest;
+import dym.filestorage.api.dto.UploadResponse;
+import dym.filestorage.api.dto.UploadSessionResponse;
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import dym.filestorage.api.service.UploadAdmissionService;
+import dym.filestorage.api.service.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+@Slf4j
+@Valid
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/files/uploads")
+public class UploadSessionController {
+
+    private final UploadSessionService uploadSessionService;
+    private final UploadAdmissionService uploadAdmissionService;
+
+    private @Value("${downloads.base-url}") String baseUrl;
+
+    @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<UploadSessionResponse> initiateUpload(
+            @Valid UploadRequest uploadRequest,
+            HttpServletRequest httpRequest) {
+
+        FileMetadata metadata = uploadSessionService.initiate(httpRequest.getContentType(), uploadRequest);
+
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(new UploadSessionResponse(metadata.getInStorageId(), metadata.getFileName()));
+    }
+
+    @PutMapping(path = "/{uploadId}/parts/{partNumber}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public UploadPartResponse uploadPart(
+            @PathVariable String uploadId,
+            @PathVariable int partNumber,
+            @RequestParam("userId") String userId,
+            HttpServletRequest httpRequest) {
+
+        try (UploadAdmissionService.Admission admission = uploadAdmissionService.admit(userId);
+             InputStream inputStream = admission.throttle(httpRequest.getInputStream())) {
+            long size = uploadSessionService.uploadPart(uploadId, userId, partNumber, inputStream);
+            return new UploadPartResponse(partNumber, size);
+        } catch (FileNotFoundException | SecurityException e) {
+            log.error("Part upload failed for user: " + userId, e);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found", e);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to store part.", e);
+        }
+    }
+
+    @PostMapping(path = "/{uploadId}/complete", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<UploadResponse> completeUpload(
+            @PathVariable String uploadId,
+            @RequestParam("userId") String userId) throws URISyntaxException {
+
+        // Completion reads the parts from the disk and writes them to the storage, like an upload
+        try (UploadAdmissionService.Admission ignored = uploadAdmissionService.admit(userId)) {
+            FileMetadata metadata = uploadSessionService.complete(uploadId, userId);
+            URI uri = new URI(baseUrl).resolve(metadata.getInStorageId());
+
+            return ResponseEntity.created(uri).body(UploadResponse.from(metadata, uri.toString()));
+        } catch (FileNotFoundException | SecurityException e) {
+            log.error("Upload completion failed for user: " + userId, e);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found", e);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to complete upload.", e);
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortUpload(
+            @PathVariable String uploadId,
+            @RequestParam("userId") String userId) {
+        try {
+            uploadSessionService.abort(uploadId, userId);
+            return ResponseEntity.noContent().build();
+        } catch (FileNotFoundException | SecurityException e) {
+            log.error("Upload abort failed for user: " + userId, e);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found", e);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to abort upload: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package dym.filestorage.api.dto;
+
+import java.util.List;
+
+/**
+ * Storage ids of the files to put into an archive. Without ids, the files are selected by the list parameters.
+ */
+public record ArchiveRequest(
+        List<String> ids
+) {
+}
@@ -2,6 +2,7 @@ package dym.filestorage.api.dto;
 
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import dym.filestorage.api.common.ContentTypeStatus;
 import dym.filestorage.api.common.Visibility;
 import dym.filestorage.api.persistance.entity.FileMetadata;
 
@@ -12,6 +13,7 @@ import java.util.Set;
 public record FileMetadataDto(
         String fileName,
         String contentType,
+        ContentTypeStatus contentTypeStatus,
         String size,
         Visibility visibility,
         Set<String> tags,
@@ -24,6 +26,7 @@ public record FileMetadataDto(
         return new FileMetadataDto(
                 fileMetadata.getFileName(),
                 fileMetadata.getContentType(),
+                fileMetadata.getContentTypeStatus(),
                 String.valueOf(fileMetadata.getSize()),
                 fileMetadata.getVisibility(),
                 fileMetadata.getTags(),
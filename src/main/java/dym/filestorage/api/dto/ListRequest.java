@@ -8,8 +8,16 @@ import jakarta.validation.constraints.Positive;
 import lombok.Data;
 import org.springframework.data.domain.Sort;
 
+import java.util.List;
+
 @Data
 public class ListRequest {
+    /**
+     * The fields files can be sorted by, each backed by the listing indexes.
+     */
+    public static final List<String> SORT_FIELDS = List.of("uploadDate", "fileName");
+
+
     String userId;
     String tag;
     Visibility visibility;
@@ -18,14 +26,31 @@ public class ListRequest {
     @Positive(message = "Page size must be greater than 0")
     int size = 20;
     String sort = "uploadDate,desc";
+    /**
+     * Continuation token from the previous page, takes precedence over the page number.
+     */
+    String cursor;
 
     public Sort getSortBy() {
         String[] sortParts = sort.split(",");
-        return switch (sortParts.length) {
-            case 0 -> Sort.unsorted();
-            case 1 -> Sort.by(Sort.Direction.ASC, sortParts[0]);
-            case 2 -> Sort.by(Sort.Direction.fromString(sortParts[1]), sortParts[0]);
-            default -> throw new ApiException("Sort parameter must be in the format 'field,direction(asc/desc)'");
-        };
+        if (sortParts.length > 2) {
+            throw new ApiException("Sort parameter must be in the format 'field,direction(asc/desc)'");
+        }
+        if (!SORT_FIELDS.contains(sortParts[0])) {
+            throw new ApiException("Files can only be sorted by " + String.join(", ", SORT_FIELDS));
+        }
+        Sort.Direction direction = sortParts.length == 2
+                ? Sort.Direction.fromOptionalString(sortParts[1])
+                .orElseThrow(() -> new ApiException("Sort direction must be asc or desc"))
+                : Sort.Direction.ASC;
+        return sortBy(sortParts[0], direction);
+    }
+
+    /**
+     * Sorts by the field and then by _id in the same direction, which makes the keyset order unique.
+     * Keeping both directions equal lets a single index serve ascending and descending listings.
+     */
+    public static Sort sortBy(String field, Sort.Direction direction) {
+        return Sort.by(direction, field, "_id");
     }
 }
@@ -1,11 +1,36 @@
 package dym.filestorage.api.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import dym.filestorage.api.helper.CursorHelper;
+import org.springframework.data.domain.Window;
+
 import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
 
 public record PageResponse<T>(
-        int page,
+        //The requested page number, absent when the page was requested with a cursor
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        Integer page,
         int size,
 
-        Collection<T> data
+        Collection<T> data,
+
+        //Continuation token for the next page, absent on the last page
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String next
 ) {
+
+    /**
+     * Maps a window of a listing query, with the position of its last element as the token of the next page.
+     */
+    public static <E, T> PageResponse<T> from(Window<E> window, Function<E, T> mapper, Integer page, int size) {
+        List<T> data = window.stream()
+                .map(mapper)
+                .toList();
+        String next = window.hasNext() && !window.isEmpty()
+                ? CursorHelper.encode(window.positionAt(window.size() - 1))
+                : null;
+        return new PageResponse<>(page, size, data, next);
+    }
 }
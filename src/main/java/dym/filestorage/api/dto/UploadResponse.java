@@ -1,6 +1,7 @@
 package dym.filestorage.api.dto;
 
 import dym.filestorage.api.common.Visibility;
+import dym.filestorage.api.persistance.entity.FileMetadata;
 
 import java.time.Instant;
 
@@ -12,4 +13,15 @@ public record UploadResponse(
         Instant timestamp,
         String url
 ) {
+
+    public static UploadResponse from(FileMetadata metadata, String url) {
+        return new UploadResponse(
+                metadata.getFileName(),
+                metadata.getContentType(),
+                metadata.getVisibility(),
+                metadata.getSize(),
+                Instant.ofEpochMilli(metadata.getUploadDate()),
+                url
+        );
+    }
 }
@@ -0,0 +1,7 @@
+package dym.filestorage.api.dto;
+
+public record UploadSessionResponse(
+        String uploadId,
+        String fileName
+) {
+}
@@ -0,0 +1,19 @@
+package dym.filestorage.api.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * The upload was not admitted because too many uploads are running, the client should retry after the delay.
+ */
+@Getter
+public class UploadRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public UploadRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,77 @@
+package dym.filestorage.api.helper;
+
+import dym.filestorage.api.exception.ApiException;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonParseException;
+import org.bson.json.JsonWriterSettings;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.OffsetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts scroll positions to opaque continuation tokens and back.
+ * A keyset token holds the sort key and the _id of the last returned document,
+ * extended JSON keeps the BSON types of the values.
+ * A keyset token only continues a listing with the same sort fields, the ones it was issued for.
+ */
+public class CursorHelper {
+
+    private static final String KEYS = "k";
+    private static final String OFFSET = "o";
+    private static final String ID = "_id";
+
+    private static final JsonWriterSettings JSON_SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.EXTENDED)
+            .build();
+
+    public static String encode(ScrollPosition position) {
+        Document document = new Document();
+        if (position instanceof KeysetScrollPosition keyset) {
+            Document keys = new Document();
+            keyset.getKeys().forEach((key, value) -> keys.put(key, value instanceof Enum<?> e ? e.name() : value));
+            document.put(KEYS, keys);
+        } else if (position instanceof OffsetScrollPosition offset) {
+            document.put(OFFSET, offset.getOffset());
+        } else {
+            throw new IllegalArgumentException("Unsupported scroll position: " + position);
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(document.toJson(JSON_SETTINGS).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ScrollPosition decode(String cursor, Sort sort) {
+        try {
+            Document document = Document.parse(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+            if (document.containsKey(KEYS)) {
+                Map<String, Object> keys = new LinkedHashMap<>(document.get(KEYS, Document.class));
+                if (!keys.keySet().equals(keyFields(sort))) {
+                    throw new ApiException("The cursor does not match the sort order: " + sort);
+                }
+                return ScrollPosition.forward(keys);
+            }
+            if (document.containsKey(OFFSET)) {
+                return ScrollPosition.offset(((Number) document.get(OFFSET)).longValue());
+            }
+        } catch (IllegalArgumentException | JsonParseException | ClassCastException e) {
+            throw new ApiException("Invalid cursor: " + cursor, e);
+        }
+        throw new ApiException("Invalid cursor: " + cursor);
+    }
+
+    // The keyset holds the sort fields and the _id, which makes the order unique
+    private static Set<String> keyFields(Sort sort) {
+        return Stream.concat(sort.stream().map(order -> "id".equals(order.getProperty()) ? ID : order.getProperty()),
+                        Stream.of(ID))
+                .collect(Collectors.toSet());
+    }
+}
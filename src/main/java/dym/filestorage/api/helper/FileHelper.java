@@ -2,11 +2,49 @@ package dym.filestorage.api.helper;
 
 import dym.filestorage.api.persistance.entity.FileMetadata;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+
 public class FileHelper {
 
     private static final String PATH_DELIMETER = "/";
 
+    public static final int MAX_SHARD_LEVELS = 4;
+
     public static String fileKeyFrom(FileMetadata fileMetadata) {
         return fileMetadata.getUserId() + PATH_DELIMETER + fileMetadata.getInStorageId();
     }
+
+    /**
+     * Inserts hash-prefix directories before the file name of the key, e.g. "user/3f/a2/name" for two levels.
+     * Each level fans out into up to 256 directories, derived from the CRC32C of the file name.
+     */
+    public static String shardedKeyFrom(String fileKey, int levels) {
+        if (levels < 0 || levels > MAX_SHARD_LEVELS) {
+            throw new IllegalArgumentException("Shard levels must be between 0 and " + MAX_SHARD_LEVELS + ": " + levels);
+        }
+        if (levels == 0) {
+            return fileKey;
+        }
+
+        int nameStart = fileKey.lastIndexOf(PATH_DELIMETER) + 1;
+        CRC32C crc = new CRC32C();
+        crc.update(fileKey.substring(nameStart).getBytes(StandardCharsets.UTF_8));
+        String hash = String.format("%08x", crc.getValue());
+
+        StringBuilder key = new StringBuilder(fileKey.length() + levels * 3).append(fileKey, 0, nameStart);
+        for (int level = 0; level < levels; level++) {
+            key.append(hash, level * 2, level * 2 + 2).append(PATH_DELIMETER);
+        }
+        return key.append(fileKey, nameStart, fileKey.length()).toString();
+    }
+
+    /**
+     * Tags are case-insensitive: they are stored lower-cased, so that the tag catalog counts them as stored,
+     * and tag filters are lower-cased the same way.
+     */
+    public static String normalizeTag(String tag) {
+        return tag == null ? null : tag.toLowerCase(Locale.ROOT);
+    }
 }
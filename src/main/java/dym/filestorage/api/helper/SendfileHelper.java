@@ -0,0 +1,32 @@
+package dym.filestorage.api.helper;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+
+/**
+ * Hands file downloads over to the servlet container's sendfile support (Tomcat NIO/NIO2 connectors),
+ * so the bytes go from the page cache to the socket without being copied through the JVM.
+ */
+public class SendfileHelper {
+
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    public static boolean isSupported(HttpServletRequest request, Resource resource) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR)) && resource.isFile();
+    }
+
+    /**
+     * Requests the container to send bytes [start, end) of the resource file after the response headers.
+     * The response body must be left empty by the caller.
+     */
+    public static void sendfile(HttpServletRequest request, Resource resource, long start, long end) throws IOException {
+        request.setAttribute(SENDFILE_FILENAME_ATTR, resource.getFile().getAbsolutePath());
+        request.setAttribute(SENDFILE_START_ATTR, start);
+        request.setAttribute(SENDFILE_END_ATTR, end);
+    }
+}
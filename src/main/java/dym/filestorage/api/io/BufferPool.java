@@ -0,0 +1,98 @@
+package dym.filestorage.api.io;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe pool of equally sized ByteBuffers, direct (off-heap) or heap-backed.
+ * Buffers are allocated when the pool is empty and returned to it on release, unless it already holds
+ * {@code maxPooled} buffers; so the retained memory is bounded, while bursts are served by extra allocations.
+ * <p>
+ * Metrics, tagged with the pool name: buffer.pool.available, buffer.pool.in.use,
+ * buffer.pool.acquisitions and buffer.pool.misses (acquisitions that had to allocate a buffer).
+ */
+public class BufferPool implements MeterBinder {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int bufferSize;
+    private final boolean direct;
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private BufferPool(String name, int bufferSize, int maxPooled, boolean direct) {
+        if (bufferSize < 1 || maxPooled < 1) {
+            throw new IllegalArgumentException("Buffer size and pool size must be positive: " + bufferSize + ", " + maxPooled);
+        }
+        this.name = name;
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public static BufferPool direct(String name, int bufferSize, int maxPooled) {
+        return new BufferPool(name, bufferSize, maxPooled, true);
+    }
+
+    public static BufferPool heap(String name, int bufferSize, int maxPooled) {
+        return new BufferPool(name, bufferSize, maxPooled, false);
+    }
+
+    /**
+     * Returns a cleared buffer. It must be released exactly once, and not used after that.
+     */
+    public ByteBuffer acquire() {
+        acquisitions.increment();
+        inUse.incrementAndGet();
+
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            misses.increment();
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        return buffer.clear();
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            throw new IllegalArgumentException("The buffer does not belong to the pool " + name);
+        }
+        inUse.decrementAndGet();
+        buffers.offer(buffer);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Tags tags = Tags.of("pool", name, "direct", String.valueOf(direct));
+
+        Gauge.builder("buffer.pool.available", buffers, BlockingQueue::size)
+                .tags(tags)
+                .description("Buffers held by the pool")
+                .register(registry);
+        Gauge.builder("buffer.pool.in.use", inUse, AtomicInteger::get)
+                .tags(tags)
+                .description("Buffers acquired and not yet released")
+                .register(registry);
+        FunctionCounter.builder("buffer.pool.acquisitions", acquisitions, LongAdder::sum)
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("buffer.pool.misses", misses, LongAdder::sum)
+                .tags(tags)
+                .description("Acquisitions that allocated a new buffer")
+                .register(registry);
+    }
+}
@@ -0,0 +1,13 @@
+package dym.filestorage.api.io;
+
+/**
+ * How stored files are forced to the disk before they are reported as stored.
+ */
+public enum DurabilityMode {
+    /** Left to the OS, a crash can lose recently stored files */
+    NONE,
+    /** Every file and its directory entry are synced individually */
+    FSYNC,
+    /** Syncs requested by concurrent writers within a short window are carried out together */
+    GROUP_COMMIT
+}
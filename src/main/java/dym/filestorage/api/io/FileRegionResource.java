@@ -0,0 +1,104 @@
+package dym.filestorage.api.io;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A read-only {@link org.springframework.core.io.Resource} over a region of a segment, read with positional reads
+ * from the shared, already open channel of the segment, see {@link SegmentFile#read}. Streams don't open the channel, but keep it open
+ * until they are closed, even if the segment is retired meanwhile. Skipping is free,
+ * so range requests don't read the skipped bytes.
+ */
+public class FileRegionResource extends AbstractResource {
+
+    private final SegmentFile segment;
+    private final long offset;
+    private final long length;
+    private final String description;
+
+    public FileRegionResource(SegmentFile segment, long offset, long length, String description) {
+        requireNonNull(segment, "The segment cannot be null.");
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+        this.description = description;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!segment.retain()) {
+            throw new FileNotFoundException("Segment was removed: " + segment.getPath());
+        }
+        return new RegionInputStream();
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public boolean exists() {
+        return segment.isOpen();
+    }
+
+    @Override
+    public String getDescription() {
+        return "File region [" + description + "]";
+    }
+
+    private class RegionInputStream extends InputStream {
+
+        private long position;
+        private boolean closed;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int count = (int) Math.min(len, length - position);
+            int bytesRead = segment.read(ByteBuffer.wrap(b, off, count), offset + position);
+            if (bytesRead == -1) {
+                throw new IOException("Unexpected end of " + description);
+            }
+            position += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) {
+            long count = Math.max(0, Math.min(n, length - position));
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, length - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                segment.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package dym.filestorage.api.io;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * Forces files and directories to the disk according to the {@link DurabilityMode}.
+ * To make a new file durable, sync its content before linking or renaming it into place,
+ * and then sync the target directory, which persists the new entry.
+ */
+public interface FileSyncer {
+
+    /**
+     * Blocks until the content of the file, or the entries of the directory, are on the disk.
+     */
+    void sync(Path path) throws IOException;
+
+    /**
+     * Creates the directory with its missing parents, and syncs the entries of the created directories.
+     */
+    default void createDirectories(Path directory) throws IOException {
+        Path existing = directory;
+        while (existing != null && !Files.isDirectory(existing)) {
+            existing = existing.getParent();
+        }
+        Files.createDirectories(directory);
+
+        for (Path created = directory; !created.equals(existing); created = created.getParent()) {
+            sync(created.getParent());
+        }
+    }
+
+    static FileSyncer of(DurabilityMode mode, Duration groupCommitWindow, int groupCommitMaxBatch) {
+        return switch (mode) {
+            case NONE -> path -> {
+            };
+            case FSYNC -> FileSyncer::force;
+            case GROUP_COMMIT -> new GroupCommitSyncer(groupCommitWindow, groupCommitMaxBatch);
+        };
+    }
+
+    static void force(Path path) throws IOException {
+        // Directories can only be opened for reading; fsync works on any descriptor of the file
+        StandardOpenOption option = Files.isDirectory(path) ? StandardOpenOption.READ : StandardOpenOption.WRITE;
+        try (FileChannel channel = FileChannel.open(path, option)) {
+            channel.force(true);
+        }
+    }
+}
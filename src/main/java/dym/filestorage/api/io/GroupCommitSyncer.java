@@ -0,0 +1,117 @@
+package dym.filestorage.api.io;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects sync requests of concurrent writers for a short window and carries them out as one batch.
+ * Paths requested several times within a batch, typically the shared directories, are synced once,
+ * and the syncs of a batch are issued at the same time, so the file system can combine their journal commits.
+ * A writer waits for at most one window plus its batch.
+ */
+@Slf4j
+public class GroupCommitSyncer implements FileSyncer, AutoCloseable {
+
+    private record Request(Path path, CompletableFuture<Void> done) {
+    }
+
+    private final LinkedBlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final long windowNanos;
+    private final int maxBatch;
+    private final Thread committer;
+    private volatile boolean closed;
+
+    public GroupCommitSyncer(Duration window, int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("The batch size must be positive: " + maxBatch);
+        }
+        this.windowNanos = window.toNanos();
+        this.maxBatch = maxBatch;
+        this.committer = Thread.ofPlatform().name("group-commit").daemon().start(this::run);
+    }
+
+    @Override
+    public void sync(Path path) throws IOException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Request request = new Request(path.toAbsolutePath().normalize(), done);
+        requests.add(request);
+        // The committer fails the requests queued before it stopped, later ones would wait forever
+        if (closed && requests.remove(request)) {
+            throw new IOException("Group commit stopped");
+        }
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the sync of " + path);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        committer.interrupt();
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(requests.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    Request request = requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (request == null) {
+                        break;
+                    }
+                    batch.add(request);
+                }
+                commit(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            log.debug("Group commit stopped");
+        } finally {
+            IOException stopped = new IOException("Group commit stopped");
+            batch.forEach(request -> request.done().completeExceptionally(stopped));
+            requests.forEach(request -> request.done().completeExceptionally(stopped));
+        }
+    }
+
+    private void commit(List<Request> batch) {
+        Map<Path, List<CompletableFuture<Void>>> waiting = new HashMap<>();
+        for (Request request : batch) {
+            waiting.computeIfAbsent(request.path(), path -> new ArrayList<>()).add(request.done());
+        }
+
+        // Issued together, the file system can merge the syncs into fewer journal commits
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            waiting.forEach((path, futures) -> executor.execute(() -> {
+                try {
+                    FileSyncer.force(path);
+                    futures.forEach(future -> future.complete(null));
+                } catch (IOException | UncheckedIOException e) {
+                    futures.forEach(future -> future.completeExceptionally(e));
+                }
+            }));
+        }
+        log.trace("Synced {} paths for {} requests", waiting.size(), batch.size());
+    }
+}
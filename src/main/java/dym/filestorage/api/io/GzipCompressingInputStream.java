@@ -0,0 +1,87 @@
+package dym.filestorage.api.io;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A wrapper for an InputStream that reads the gzip-compressed form of the data read from it,
+ * so that compressed content can be handed to InputStream-based storage APIs.
+ */
+public class GzipCompressingInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final CheckedInputStream checkedStream;
+    private final Deflater deflater;
+    private final DeflaterInputStream deflaterStream;
+
+    private ByteBuffer header = ByteBuffer.wrap(HEADER);
+    private ByteBuffer trailer;
+
+    @Getter
+    private long compressedSize;
+
+    public GzipCompressingInputStream(InputStream sourceStream, int level) {
+        requireNonNull(sourceStream, "The source InputStream cannot be null.");
+        this.checkedStream = new CheckedInputStream(sourceStream, new CRC32());
+        this.deflater = new Deflater(level, true);
+        this.deflaterStream = new DeflaterInputStream(checkedStream, deflater, BUFFER_SIZE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (header.hasRemaining()) {
+            return copy(header, b, off, len);
+        }
+        if (trailer == null) {
+            int bytes = deflaterStream.read(b, off, len);
+            if (bytes != -1) {
+                compressedSize += bytes;
+                return bytes;
+            }
+            trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt((int) checkedStream.getChecksum().getValue())
+                    .putInt((int) deflater.getBytesRead())
+                    .flip();
+            deflater.end();
+        }
+        return trailer.hasRemaining() ? copy(trailer, b, off, len) : -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        checkedStream.close();
+    }
+
+    private int copy(ByteBuffer source, byte[] b, int off, int len) {
+        int count = Math.min(len, source.remaining());
+        source.get(b, off, count);
+        compressedSize += count;
+        return count;
+    }
+}
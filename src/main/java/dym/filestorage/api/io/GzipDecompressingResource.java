@@ -0,0 +1,48 @@
+package dym.filestorage.api.io;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A read-only {@link Resource} with the decompressed content of a gzip-compressed resource.
+ * The original size must be known, so that it can be served with a Content-Length and byte ranges.
+ */
+public class GzipDecompressingResource extends AbstractResource {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final Resource compressed;
+    private final long size;
+
+    public GzipDecompressingResource(Resource compressed, long size) {
+        requireNonNull(compressed, "The compressed resource cannot be null.");
+        this.compressed = compressed;
+        this.size = size;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new GZIPInputStream(compressed.getInputStream(), BUFFER_SIZE);
+    }
+
+    @Override
+    public long contentLength() {
+        return size;
+    }
+
+    @Override
+    public boolean exists() {
+        return compressed.exists();
+    }
+
+    @Override
+    public String getDescription() {
+        return "Decompressed " + compressed.getDescription();
+    }
+}
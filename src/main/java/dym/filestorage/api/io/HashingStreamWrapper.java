@@ -2,41 +2,43 @@ package dym.filestorage.api.io;
 
 import jakarta.validation.constraints.NotNull;
 import lombok.Getter;
-import lombok.SneakyThrows;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 import static java.util.Objects.requireNonNull;
 
 /**
- * A wrapper for an InputStream that computes the SHA-256 hash and the size of the data read from it.
+ * A wrapper for an InputStream that computes a digest (SHA-256 by default) and the size of the data read from it.
  * Can be used to integrate with existing InputStream-based APIs.
  */
 public class HashingStreamWrapper extends InputStream {
 
-    private static final String DEFAULT_HASH_ALGORITHM = "SHA-256";
-
     private final InputStream sourceStream;
-    private final MessageDigest messageDigest;
+    private final StreamDigest digest;
+    private final byte[] singleByte = new byte[1];
 
     @Getter
     private long bytesRead;
+    private byte[] hash;
 
-    @SneakyThrows(NoSuchAlgorithmException.class)
     public HashingStreamWrapper(InputStream sourceStream) {
+        this(sourceStream, StreamDigest.of(StreamDigest.SHA_256));
+    }
+
+    public HashingStreamWrapper(InputStream sourceStream, StreamDigest digest) {
         requireNonNull(sourceStream, "The source InputStream cannot be null.");
+        requireNonNull(digest, "The digest cannot be null.");
         this.sourceStream = sourceStream;
-        this.messageDigest = MessageDigest.getInstance(DEFAULT_HASH_ALGORITHM);
+        this.digest = digest;
     }
 
     @Override
     public int read() throws IOException {
         int b = sourceStream.read();
         if (b != -1) {
-            messageDigest.update((byte) b);
+            singleByte[0] = (byte) b;
+            digest.update(singleByte, 0, 1);
             bytesRead++;
         }
         return b;
@@ -46,7 +48,7 @@ public class HashingStreamWrapper extends InputStream {
     public int read(@NotNull byte[] b, int off, int len) throws IOException {
         int bytes = sourceStream.read(b, off, len);
         if (bytes != -1) {
-            messageDigest.update(b, off, bytes);
+            digest.update(b, off, bytes);
             bytesRead += bytes;
         }
         return bytes;
@@ -72,26 +74,20 @@ public class HashingStreamWrapper extends InputStream {
         sourceStream.close();
     }
 
-    @Override
-    public synchronized void mark(int readlimit) {
-        sourceStream.mark(readlimit);
-    }
+    // mark/reset are not supported: a digest cannot be rewound to the marked position
 
-    @Override
-    public synchronized void reset() throws IOException {
-        sourceStream.reset();
-        messageDigest.reset();
-        bytesRead = 0;
-    }
-
-
-    @Override
-    public boolean markSupported() {
-        return sourceStream.markSupported();
+    public String getAlgorithm() {
+        return digest.getAlgorithm();
     }
 
+    /**
+     * Completes the digest on the first call, so no more bytes can be read afterwards.
+     */
     public byte[] getHash() {
-        return messageDigest.digest();
+        if (hash == null) {
+            hash = digest.digest();
+        }
+        return hash;
     }
 
 }
\ No newline at end of file
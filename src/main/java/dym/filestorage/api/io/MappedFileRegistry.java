@@ -0,0 +1,219 @@
+package dym.filestorage.api.io;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares read-only memory mappings of files between concurrent readers, so that they all read the page cache
+ * directly instead of each copying the file with read calls. Only files within the size band are mapped.
+ * <p>
+ * Streams opened on a mapping are counted, and mappings without open streams are dropped after the idle timeout,
+ * or as soon as the file is deleted or moved.
+ * A dropped MappedByteBuffer is unmapped by the garbage collector once no resource refers to it any more,
+ * which keeps late readers safe. Stored files never change, so a mapping never becomes stale.
+ * <p>
+ * Metrics: mapped.files.count and mapped.files.bytes.
+ */
+@Slf4j
+public class MappedFileRegistry implements MeterBinder, AutoCloseable {
+
+    private final long minSize;
+    private final long maxSize;
+    private final long idleTimeoutNanos;
+    private final Map<Path, Mapping> mappings = new ConcurrentHashMap<>();
+    private final AtomicLong mappedBytes = new AtomicLong();
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * @param maxSize 0 disables mapping
+     */
+    public MappedFileRegistry(long minSize, long maxSize, Duration idleTimeout) {
+        this.minSize = minSize;
+        this.maxSize = Math.min(maxSize, Integer.MAX_VALUE);
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        if (isEnabled()) {
+            long period = Math.max(1, idleTimeout.toMillis() / 2);
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("mapped-file-sweeper").daemon().factory());
+            this.sweeper.scheduleWithFixedDelay(this::dropIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.sweeper = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    public boolean accepts(long size) {
+        return isEnabled() && size >= minSize && size <= maxSize;
+    }
+
+    /**
+     * Returns the shared mapping of the file, mapping it if needed.
+     */
+    public Mapping map(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        Mapping mapping = mappings.get(key);
+        if (mapping != null) {
+            return mapping.touch();
+        }
+
+        Mapping created;
+        try (FileChannel channel = FileChannel.open(key, StandardOpenOption.READ)) {
+            created = new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        mapping = mappings.putIfAbsent(key, created);
+        if (mapping != null) {
+            // Mapped concurrently, the extra mapping is released by the garbage collector
+            return mapping.touch();
+        }
+        mappedBytes.addAndGet(created.buffer.capacity());
+        return created;
+    }
+
+    /**
+     * Drops the mapping of a file that was deleted or moved, so that it does not keep the file's pages
+     * until the idle timeout. Streams already open keep reading from the dropped mapping.
+     */
+    public void drop(Path path) {
+        Mapping mapping = mappings.remove(path.toAbsolutePath().normalize());
+        if (mapping != null) {
+            mappedBytes.addAndGet(-mapping.buffer.capacity());
+            log.trace("Dropped mapping of {}", path);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("mapped.files.count", mappings, Map::size)
+                .description("Files currently memory-mapped for reading")
+                .register(registry);
+        Gauge.builder("mapped.files.bytes", mappedBytes, AtomicLong::get)
+                .description("Size of the memory-mapped files")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @Override
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        mappings.clear();
+        mappedBytes.set(0);
+    }
+
+    private void dropIdle() {
+        long now = System.nanoTime();
+        mappings.forEach((path, mapping) -> {
+            if (mapping.openStreams.get() == 0 && now - mapping.lastUsed > idleTimeoutNanos
+                    && mappings.remove(path, mapping)) {
+                mappedBytes.addAndGet(-mapping.buffer.capacity());
+                log.trace("Dropped idle mapping of {}", path);
+            }
+        });
+    }
+
+    public static class Mapping {
+
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger openStreams = new AtomicInteger();
+        private volatile long lastUsed = System.nanoTime();
+
+        private Mapping(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public long size() {
+            return buffer.capacity();
+        }
+
+        /**
+         * Opens a stream over an independent view of the mapping. The mapping is in use until the stream is closed.
+         */
+        public InputStream openStream() {
+            openStreams.incrementAndGet();
+            touch();
+            return new MappedInputStream(this, buffer.duplicate());
+        }
+
+        private Mapping touch() {
+            lastUsed = System.nanoTime();
+            return this;
+        }
+
+        private void release() {
+            touch();
+            openStreams.decrementAndGet();
+        }
+    }
+
+    private static class MappedInputStream extends InputStream {
+
+        private final Mapping mapping;
+        private final ByteBuffer buffer;
+        private boolean closed;
+
+        private MappedInputStream(Mapping mapping, ByteBuffer buffer) {
+            this.mapping = mapping;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                mapping.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package dym.filestorage.api.io;
+
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * A file resource whose streams read from a shared memory mapping of the file.
+ * It is still a file resource, so downloads that can use sendfile keep doing so,
+ * and the file is only mapped when a stream is opened.
+ */
+public class MappedFileResource extends FileSystemResource {
+
+    private final MappedFileRegistry mappedFileRegistry;
+
+    public MappedFileResource(Path path, MappedFileRegistry mappedFileRegistry) {
+        super(path);
+        this.mappedFileRegistry = mappedFileRegistry;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mappedFileRegistry.map(getFile().toPath()).openStream();
+    }
+}
@@ -0,0 +1,133 @@
+package dym.filestorage.api.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Computes a digest on a separate virtual thread, so that hashing overlaps with the storage write
+ * instead of adding to it. The caller only copies each chunk into a buffer and hands it over.
+ * At most {@code depth} chunks are in flight; the caller blocks when the digest falls behind.
+ * Buffers are recycled between the two stages, so a steady stream does not allocate.
+ */
+public class PipelinedDigest implements StreamDigest {
+
+    private static final Chunk END = new Chunk(new byte[0]);
+
+    private final StreamDigest digest;
+    private final BlockingQueue<Chunk> pending;
+    private final BlockingQueue<Chunk> free;
+    private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+    private final Thread worker;
+
+    private boolean completed;
+
+    public PipelinedDigest(StreamDigest digest, int depth) {
+        requireNonNull(digest, "The digest cannot be null.");
+        if (depth < 1) {
+            throw new IllegalArgumentException("The pipeline depth must be positive: " + depth);
+        }
+        this.digest = digest;
+        this.pending = new ArrayBlockingQueue<>(depth + 1);
+        this.free = new ArrayBlockingQueue<>(depth);
+        this.worker = Thread.ofVirtual().name("digest-" + digest.getAlgorithm()).start(this::run);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return digest.getAlgorithm();
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        if (len == 0) {
+            return;
+        }
+        checkNotCompleted();
+
+        Chunk chunk = free.poll();
+        if (chunk == null || chunk.data.length < len) {
+            chunk = new Chunk(new byte[len]);
+        }
+        System.arraycopy(b, off, chunk.data, 0, len);
+        chunk.length = len;
+        put(chunk);
+    }
+
+    @Override
+    public byte[] digest() {
+        checkNotCompleted();
+        completed = true;
+        put(END);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            worker.interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the digest", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Digest computation failed", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!result.isDone()) {
+            worker.interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            Chunk chunk;
+            while ((chunk = pending.take()) != END) {
+                digest.update(chunk.data, 0, chunk.length);
+                free.offer(chunk);
+            }
+            result.complete(digest.digest());
+        } catch (InterruptedException e) {
+            result.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            // Unblock the producer
+            pending.clear();
+        }
+    }
+
+    private void put(Chunk chunk) {
+        // Gives up if the worker has failed and stopped taking chunks
+        try {
+            while (!result.isDone()) {
+                if (pending.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            worker.interrupt();
+            throw new IllegalStateException("Interrupted while queueing data for the digest", e);
+        }
+        if (chunk != END) {
+            throw new IllegalStateException("Digest computation failed", result.exceptionNow());
+        }
+    }
+
+    private void checkNotCompleted() {
+        if (completed) {
+            throw new IllegalStateException("The digest is already completed");
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] data;
+        private int length;
+
+        private Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+}
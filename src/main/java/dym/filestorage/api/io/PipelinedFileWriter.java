@@ -0,0 +1,195 @@
+package dym.filestorage.api.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Copies an InputStream to a file in two stages, so that reading from the network and writing to the disk overlap:
+ * the calling thread fills buffers from the stream, and a virtual thread writes the filled buffers
+ * with positional {@link FileChannel} writes. Up to {@code depth} buffers circulate between the stages.
+ * They are taken from the pool only as the stream needs them, so small files use a single buffer.
+ * A depth of 1 gives no overlap.
+ * <p>
+ * An InputStream only reads into arrays: heap buffers are filled directly, and the channel copies them
+ * into a temporary direct buffer when writing; direct buffers are filled through a small array, one copy,
+ * and are written as they are.
+ */
+public class PipelinedFileWriter {
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+    private static final int MAX_CHUNK_SIZE = 65536;
+
+    private final BufferPool bufferPool;
+    private final int depth;
+
+    public PipelinedFileWriter(BufferPool bufferPool, int depth) {
+        requireNonNull(bufferPool, "The buffer pool cannot be null.");
+        if (depth < 1) {
+            throw new IllegalArgumentException("The pipeline depth must be positive: " + depth);
+        }
+        this.bufferPool = bufferPool;
+        this.depth = depth;
+    }
+
+    /**
+     * Writes the stream to a new file and returns the number of bytes written.
+     * The stream is not closed. The file is left in place if the copy fails, it's up to the caller to remove it.
+     */
+    public long write(InputStream inputStream, Path path) throws IOException {
+        return write(inputStream, path, StandardOpenOption.CREATE_NEW);
+    }
+
+    public long write(InputStream inputStream, Path path, OpenOption createOption) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, Set.of(StandardOpenOption.WRITE, createOption))) {
+            return new Transfer(inputStream, channel).run();
+        }
+    }
+
+    private class Transfer {
+
+        private final InputStream source;
+        private final FileChannel target;
+        private final BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(depth + 1);
+        private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(depth);
+        private final CompletableFuture<Long> written = new CompletableFuture<>();
+        private final List<ByteBuffer> acquired = new ArrayList<>(depth);
+        // Only needed to fill direct buffers
+        private byte[] chunk;
+
+        private Transfer(InputStream source, FileChannel target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        private long run() throws IOException {
+            Thread writer = Thread.ofVirtual().name("file-writer").start(this::writeBuffers);
+            try {
+                boolean eof = false;
+                while (!eof) {
+                    ByteBuffer buffer = nextFreeBuffer();
+                    eof = fill(buffer);
+                    if (buffer.flip().hasRemaining()) {
+                        hand(buffer);
+                    }
+                }
+                hand(END);
+                return written.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing the file");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            } finally {
+                if (!written.isDone()) {
+                    writer.interrupt();
+                }
+                releaseBuffers(writer);
+            }
+        }
+
+        private void releaseBuffers(Thread writer) {
+            boolean interrupted = false;
+            // The buffers can be reused only once the writer no longer touches them
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            acquired.forEach(bufferPool::release);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Returns true at the end of the stream
+        private boolean fill(ByteBuffer buffer) throws IOException {
+            if (buffer.hasArray()) {
+                while (buffer.hasRemaining()) {
+                    int bytesRead = source.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    if (bytesRead == -1) {
+                        return true;
+                    }
+                    buffer.position(buffer.position() + bytesRead);
+                }
+                return false;
+            }
+
+            if (chunk == null) {
+                chunk = new byte[Math.min(buffer.capacity(), MAX_CHUNK_SIZE)];
+            }
+            while (buffer.hasRemaining()) {
+                int bytesRead = source.read(chunk, 0, Math.min(chunk.length, buffer.remaining()));
+                if (bytesRead == -1) {
+                    return true;
+                }
+                buffer.put(chunk, 0, bytesRead);
+            }
+            return false;
+        }
+
+        private ByteBuffer nextFreeBuffer() throws InterruptedException, IOException {
+            ByteBuffer buffer = free.poll();
+            if (buffer == null && acquired.size() < depth) {
+                buffer = bufferPool.acquire();
+                acquired.add(buffer);
+                return buffer;
+            }
+            while (buffer == null) {
+                checkWriter();
+                buffer = free.poll(100, TimeUnit.MILLISECONDS);
+            }
+            return buffer.clear();
+        }
+
+        private void hand(ByteBuffer buffer) throws InterruptedException, IOException {
+            while (!filled.offer(buffer, 100, TimeUnit.MILLISECONDS)) {
+                checkWriter();
+            }
+        }
+
+        // Fails fast if the writer has stopped and would never take or release a buffer
+        private void checkWriter() throws IOException, InterruptedException {
+            if (written.isCompletedExceptionally()) {
+                try {
+                    written.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+            }
+        }
+
+        private void writeBuffers() {
+            long position = 0;
+            try {
+                ByteBuffer buffer;
+                while ((buffer = filled.take()) != END) {
+                    while (buffer.hasRemaining()) {
+                        position += target.write(buffer, position);
+                    }
+                    free.add(buffer);
+                }
+                written.complete(position);
+            } catch (Throwable e) {
+                written.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package dym.filestorage.api.io;
+
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An append-only file of records, each holding a small blob or a tombstone under a key.
+ * <pre>
+ * int magic | byte type | short key length | int value | int CRC32C of key and data | key | data
+ * </pre>
+ * The value is the data length of a blob record, or the id of the segment holding the deleted blob for a tombstone.
+ * Appends must be serialized by the caller; reads are positional and can run concurrently with them.
+ * <p>
+ * Once a segment is no longer appended to, its records without their data can be written to a hint file,
+ * which is read instead of the whole segment to rebuild the index:
+ * <pre>
+ * int magic | long segment size | long valid size | int count | count * (byte type | short key length | key
+ *     | int value | long offset | int size) | int CRC32C of the preceding bytes
+ * </pre>
+ * The channel is reference counted: the owner holds a reference until it retires the segment,
+ * and every stream opened by a reader holds one until it is closed.
+ * <p>
+ * A {@link FileChannel} is closed for every user when a thread blocked in it is interrupted, e.g. a download
+ * cancelled on timeout. Such a channel is reopened on the next access, so that other readers and the appends
+ * carry on; only the interrupted thread fails. A channel closed by {@link #close()} or the last release stays closed.
+ */
+public class SegmentFile implements AutoCloseable {
+
+    public static final byte BLOB = 1;
+    public static final byte TOMBSTONE = 2;
+    public static final int HEADER_SIZE = 15;
+
+    private static final int MAGIC = 0x53454731;
+    private static final int HINT_MAGIC = 0x53454748;
+
+    /**
+     * A record read back from the segment.
+     *
+     * @param offset position of the record in the segment
+     */
+    public record Entry(byte type, String key, int value, long offset, int size) {
+
+        public long dataOffset() {
+            return offset + size - (type == BLOB ? value : 0);
+        }
+    }
+
+    /**
+     * The records of a segment read from its hint file.
+     *
+     * @param validSize the end of the last valid record of the segment
+     */
+    public record Hint(long validSize, List<Entry> entries) {
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(Entry entry, ByteBuffer data) throws IOException;
+    }
+
+    @Getter
+    private final int id;
+    @Getter
+    private final Path path;
+    private volatile FileChannel channel;
+    private volatile boolean closed;
+    private final AtomicLong size;
+    private final AtomicLong garbage = new AtomicLong();
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private SegmentFile(int id, Path path, FileChannel channel, long size) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.size = new AtomicLong(size);
+    }
+
+    public static SegmentFile open(int id, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new SegmentFile(id, path, channel, channel.size());
+    }
+
+    public long size() {
+        return size.get();
+    }
+
+    public long garbage() {
+        return garbage.get();
+    }
+
+    public void addGarbage(long bytes) {
+        garbage.addAndGet(bytes);
+    }
+
+    /**
+     * Appends a record at the end of the segment and returns it.
+     */
+    public Entry append(byte type, String key, int value, ByteBuffer data) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > Short.MAX_VALUE) {
+            throw new IOException("Key is too long: " + key);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(keyBytes);
+        crc.update(data.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length)
+                .putInt(MAGIC)
+                .put(type)
+                .putShort((short) keyBytes.length)
+                .putInt(value)
+                .putInt((int) crc.getValue())
+                .put(keyBytes)
+                .flip();
+
+        long offset = size.get();
+        int recordSize = header.remaining() + data.remaining();
+        long position = offset;
+        FileChannel channel = channel();
+        for (ByteBuffer buffer : new ByteBuffer[]{header, data.duplicate()}) {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        size.set(position);
+        return new Entry(type, key, value, offset, recordSize);
+    }
+
+    /**
+     * Reads the records in order, verifying their checksums.
+     *
+     * @return the end of the last valid record, which is smaller than the file size if the tail is incomplete or corrupt
+     */
+    public long scan(EntryConsumer consumer) throws IOException {
+        long fileSize = channel().size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= fileSize) {
+            readFully(header.clear(), position);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                break;
+            }
+            byte type = header.get();
+            int keyLength = header.getShort();
+            int value = header.getInt();
+            int checksum = header.getInt();
+            int dataLength = type == BLOB ? value : 0;
+            if ((type != BLOB && type != TOMBSTONE) || keyLength < 0 || dataLength < 0
+                    || position + HEADER_SIZE + keyLength + dataLength > fileSize) {
+                break;
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(keyLength + dataLength);
+            readFully(record, position + HEADER_SIZE);
+            CRC32C crc = new CRC32C();
+            crc.update(record.flip());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            String key = new String(record.array(), 0, keyLength, StandardCharsets.UTF_8);
+            int recordSize = HEADER_SIZE + keyLength + dataLength;
+            consumer.accept(new Entry(type, key, value, position, recordSize),
+                    ByteBuffer.wrap(record.array(), keyLength, dataLength).slice());
+            position += recordSize;
+        }
+        return position;
+    }
+
+    /**
+     * Writes the records of the segment to a hint file. Only for segments that are no longer appended to.
+     * The file is not synced, so that the caller can apply its durability mode.
+     */
+    public void writeHint(Path hintPath) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long validSize = scan((entry, data) -> entries.add(entry));
+
+        CheckedOutputStream checked = new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(hintPath)), new CRC32C());
+        try (DataOutputStream out = new DataOutputStream(checked)) {
+            out.writeInt(HINT_MAGIC);
+            out.writeLong(size());
+            out.writeLong(validSize);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                byte[] keyBytes = entry.key().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(entry.type());
+                out.writeShort(keyBytes.length);
+                out.write(keyBytes);
+                out.writeInt(entry.value());
+                out.writeLong(entry.offset());
+                out.writeInt(entry.size());
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+        }
+    }
+
+    /**
+     * Reads the hint file of the segment. Empty if there is none, or if it is incomplete, corrupt,
+     * or was written for a different size of the segment.
+     */
+    public Optional<Hint> readHint(Path hintPath) throws IOException {
+        CheckedInputStream checked;
+        try {
+            checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(hintPath)), new CRC32C());
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+
+        try (DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != HINT_MAGIC || in.readLong() != size()) {
+                return Optional.empty();
+            }
+            long validSize = in.readLong();
+            int count = in.readInt();
+            if (count < 0) {
+                return Optional.empty();
+            }
+            List<Entry> entries = new ArrayList<>(Math.min(count, 65536));
+            for (int i = 0; i < count; i++) {
+                byte type = in.readByte();
+                byte[] keyBytes = in.readNBytes(in.readShort());
+                entries.add(new Entry(type, new String(keyBytes, StandardCharsets.UTF_8),
+                        in.readInt(), in.readLong(), in.readInt()));
+            }
+            int checksum = (int) checked.getChecksum().getValue();
+            return in.readInt() == checksum ? Optional.of(new Hint(validSize, entries)) : Optional.empty();
+        } catch (EOFException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Registers a reader of the channel.
+     *
+     * @return false if the segment was retired and its channel is closed
+     */
+    public boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Releases a reference taken with {@link #retain()}; the channel is closed when the last one is released.
+     */
+    public void release() throws IOException {
+        if (references.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Releases the owner's reference, the channel is closed as soon as no reader uses it.
+     */
+    public void retire() throws IOException {
+        release();
+    }
+
+    /**
+     * Cuts off an incomplete tail, e.g. after a crash during an append.
+     */
+    public void truncate(long newSize) throws IOException {
+        channel().truncate(newSize);
+        size.set(newSize);
+    }
+
+    /**
+     * Reads from the given position of the segment, like {@link FileChannel#read(ByteBuffer, long)}.
+     */
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        try {
+            return channel().read(buffer, position);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            // Closed by another thread that was interrupted while using the channel
+            return channel().read(buffer, position);
+        }
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the open channel, reopening it if an interrupt closed it.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel current = channel;
+        if (current.isOpen()) {
+            return current;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (!channel.isOpen()) {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return channel;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int bytesRead = read(buffer, position);
+            if (bytesRead == -1) {
+                throw new EOFException("Unexpected end of segment " + path);
+            }
+            position += bytesRead;
+        }
+    }
+}
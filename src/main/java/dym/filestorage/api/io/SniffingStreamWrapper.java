@@ -0,0 +1,92 @@
+package dym.filestorage.api.io;
+
+import jakarta.validation.constraints.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A wrapper for an InputStream that keeps a copy of the first bytes read from it, e.g. for content type detection.
+ * The listener is called with the captured bytes as soon as the buffer is full or the stream ends,
+ * so that the prefix can be processed while the rest of the stream is still being read.
+ */
+public class SniffingStreamWrapper extends InputStream {
+
+    private final InputStream sourceStream;
+    private final byte[] prefix;
+    private final Consumer<byte[]> prefixListener;
+
+    private int prefixLength;
+    private boolean prefixComplete;
+
+    public SniffingStreamWrapper(InputStream sourceStream, int prefixSize, Consumer<byte[]> prefixListener) {
+        requireNonNull(sourceStream, "The source InputStream cannot be null.");
+        requireNonNull(prefixListener, "The prefix listener cannot be null.");
+        this.sourceStream = sourceStream;
+        this.prefix = new byte[prefixSize];
+        this.prefixListener = prefixListener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = sourceStream.read();
+        if (b == -1) {
+            completePrefix();
+        } else if (!prefixComplete) {
+            prefix[prefixLength++] = (byte) b;
+            if (prefixLength == prefix.length) {
+                completePrefix();
+            }
+        }
+        return b;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        int bytes = sourceStream.read(b, off, len);
+        if (bytes == -1) {
+            completePrefix();
+        } else if (!prefixComplete) {
+            int captured = Math.min(bytes, prefix.length - prefixLength);
+            System.arraycopy(b, off, prefix, prefixLength, captured);
+            prefixLength += captured;
+            if (prefixLength == prefix.length) {
+                completePrefix();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return sourceStream.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sourceStream.close();
+    }
+
+    /**
+     * @return the bytes captured so far
+     */
+    public byte[] getPrefix() {
+        return Arrays.copyOf(prefix, prefixLength);
+    }
+
+    private void completePrefix() {
+        if (!prefixComplete) {
+            prefixComplete = true;
+            prefixListener.accept(getPrefix());
+        }
+    }
+}
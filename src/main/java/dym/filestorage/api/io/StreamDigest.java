@@ -0,0 +1,111 @@
+package dym.filestorage.api.io;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * A digest computed over a stream of bytes: a cryptographic hash or a checksum.
+ * Instances are not thread-safe and produce a single value.
+ */
+public interface StreamDigest extends AutoCloseable {
+
+    String SHA_256 = "SHA-256";
+    String CRC32C = "CRC32C";
+
+    String getAlgorithm();
+
+    void update(byte[] b, int off, int len);
+
+    /**
+     * Completes the computation and returns the value. No more bytes can be added afterwards.
+     */
+    byte[] digest();
+
+    /**
+     * Releases the resources if the digest is abandoned before completion.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * Creates a digest for the algorithm name: CRC32C, CRC32 and ADLER32 are checksums,
+     * other names are looked up as {@link MessageDigest} algorithms, e.g. SHA-256 or SHA-512.
+     * The JDK uses CPU intrinsics for CRC32C and the SHA family where the hardware supports them.
+     */
+    static StreamDigest of(String algorithm) {
+        return switch (algorithm.toUpperCase(Locale.ROOT)) {
+            case CRC32C -> new ChecksumDigest(CRC32C, new CRC32C());
+            case "CRC32" -> new ChecksumDigest("CRC32", new CRC32());
+            case "ADLER32" -> new ChecksumDigest("ADLER32", new Adler32());
+            default -> {
+                try {
+                    yield new MessageDigestAdapter(MessageDigest.getInstance(algorithm));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm, e);
+                }
+            }
+        };
+    }
+
+    class MessageDigestAdapter implements StreamDigest {
+
+        private final MessageDigest messageDigest;
+
+        MessageDigestAdapter(MessageDigest messageDigest) {
+            this.messageDigest = messageDigest;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return messageDigest.getAlgorithm();
+        }
+
+        public int getDigestLength() {
+            return messageDigest.getDigestLength();
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            messageDigest.update(b, off, len);
+        }
+
+        @Override
+        public byte[] digest() {
+            return messageDigest.digest();
+        }
+    }
+
+    class ChecksumDigest implements StreamDigest {
+
+        private final String algorithm;
+        private final Checksum checksum;
+
+        ChecksumDigest(String algorithm, Checksum checksum) {
+            this.algorithm = algorithm;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            checksum.update(b, off, len);
+        }
+
+        @Override
+        public byte[] digest() {
+            // 32-bit checksums, big-endian
+            int value = (int) checksum.getValue();
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+    }
+}
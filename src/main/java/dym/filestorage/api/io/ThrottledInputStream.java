@@ -0,0 +1,69 @@
+package dym.filestorage.api.io;
+
+import jakarta.validation.constraints.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A wrapper for an InputStream that takes a token from the bucket for every byte read,
+ * and holds back the next read while the bucket is in debt. Reading from a socket less often
+ * makes the sender slow down through TCP flow control.
+ */
+public class ThrottledInputStream extends InputStream {
+
+    private final InputStream sourceStream;
+    private final TokenBucket bucket;
+
+    public ThrottledInputStream(InputStream sourceStream, TokenBucket bucket) {
+        requireNonNull(sourceStream, "The source InputStream cannot be null.");
+        requireNonNull(bucket, "The token bucket cannot be null.");
+        this.sourceStream = sourceStream;
+        this.bucket = bucket;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = sourceStream.read();
+        if (b != -1) {
+            take(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        int bytes = sourceStream.read(b, off, len);
+        if (bytes > 0) {
+            take(bytes);
+        }
+        return bytes;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return sourceStream.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sourceStream.close();
+    }
+
+    private void take(int bytes) throws InterruptedIOException {
+        try {
+            bucket.take(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling the stream");
+        }
+    }
+}
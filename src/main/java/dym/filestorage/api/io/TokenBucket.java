@@ -0,0 +1,53 @@
+package dym.filestorage.api.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits a rate, e.g. of bytes per second, while allowing bursts up to the capacity.
+ * Tokens are taken after the fact: a taker may go into debt, and waits until the debt is paid off by the refill.
+ * Takers sharing a bucket share its rate, each one waiting for its own debt.
+ */
+public class TokenBucket {
+
+    private final long ratePerSecond;
+    private final long capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(long ratePerSecond, long capacity) {
+        if (ratePerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("The rate and the capacity must be positive: " + ratePerSecond + ", " + capacity);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes the tokens, waiting until the bucket is not in debt anymore.
+     */
+    public void take(long count) throws InterruptedException {
+        long waitNanos;
+        lock.lock();
+        try {
+            refill();
+            tokens -= count;
+            waitNanos = tokens < 0 ? (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / ratePerSecond) : 0;
+        } finally {
+            lock.unlock();
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerSecond / (double) TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+}
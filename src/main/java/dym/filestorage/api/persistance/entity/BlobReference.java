@@ -0,0 +1,25 @@
+package dym.filestorage.api.persistance.entity;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Links a file key to the content-addressed blob holding its bytes.
+ * The number of references with the same hash is the reference count of the blob.
+ */
+@Data
+@Accessors(chain = true)
+@Document(collection = "blob_refs")
+public class BlobReference {
+
+    @Id
+    private String fileKey;
+
+    @Indexed(name = "blob_hash_idx")
+    private String hash;
+
+    private long size;
+}
@@ -1,5 +1,6 @@
 package dym.filestorage.api.persistance.entity;
 
+import dym.filestorage.api.common.ContentTypeStatus;
 import dym.filestorage.api.common.FileStatus;
 import dym.filestorage.api.common.Visibility;
 import lombok.Data;
@@ -14,14 +15,49 @@ import java.util.Set;
 @Data
 @Accessors(chain = true)
 @Document(collection = "files")
-@CompoundIndex(name = "user_filename_idx",
+@CompoundIndex(name = "user_reserved_filename_idx",
         def = "{'userId': 1, 'fileName': 1}",
-        partialFilter = "{'status': { $in: ['PENDING', 'ACTIVE'] }}",
+        partialFilter = "{'status': { $in: ['PENDING', 'COMPLETING', 'ACTIVE'] }}",
         unique = true)
 @CompoundIndex(name = "user_sha256_hash_idx",
         def = "{'userId': 1, 'hash': 1}",
         partialFilter = "{'status': { $eq: 'ACTIVE' }}",
         unique = true)
+// Listing indexes end with the keyset scroll order: a sort field of ListRequest followed by _id.
+// Both descend, a backward scan serves the ascending order.
+@CompoundIndex(name = "user_listing_idx",
+        def = "{'userId': 1, 'uploadDate': -1, '_id': -1}",
+        partialFilter = "{'status': { $eq: 'ACTIVE' }}")
+@CompoundIndex(name = "user_name_listing_idx",
+        def = "{'userId': 1, 'fileName': -1, '_id': -1}",
+        partialFilter = "{'status': { $eq: 'ACTIVE' }}")
+@CompoundIndex(name = "user_tag_listing_idx",
+        def = "{'userId': 1, 'tags': 1, 'uploadDate': -1, '_id': -1}",
+        partialFilter = "{'status': { $eq: 'ACTIVE' }}")
+@CompoundIndex(name = "user_tag_name_listing_idx",
+        def = "{'userId': 1, 'tags': 1, 'fileName': -1, '_id': -1}",
+        partialFilter = "{'status': { $eq: 'ACTIVE' }}")
+@CompoundIndex(name = "visibility_listing_idx",
+        def = "{'visibility': 1, 'uploadDate': -1, '_id': -1}",
+        partialFilter = "{'status': { $eq: 'ACTIVE' }}")
+@CompoundIndex(name = "visibility_name_listing_idx",
+        def = "{'visibility': 1, 'fileName': -1, '_id': -1}",
+        partialFilter = "{'status': { $eq: 'ACTIVE' }}")
+@CompoundIndex(name = "visibility_tag_listing_idx",
+        def = "{'visibility': 1, 'tags': 1, 'uploadDate': -1, '_id': -1}",
+        partialFilter = "{'status': { $eq: 'ACTIVE' }}")
+@CompoundIndex(name = "visibility_tag_name_listing_idx",
+        def = "{'visibility': 1, 'tags': 1, 'fileName': -1, '_id': -1}",
+        partialFilter = "{'status': { $eq: 'ACTIVE' }}")
+@CompoundIndex(name = "pending_inStorageId_idx",
+        def = "{'inStorageId': 1}",
+        partialFilter = "{'status': { $eq: 'PENDING' }}")
+@CompoundIndex(name = "pending_detection_idx",
+        def = "{'uploadDate': 1}",
+        partialFilter = "{'status': { $eq: 'ACTIVE' }, 'contentTypeStatus': { $eq: 'PENDING' }}")
+@CompoundIndex(name = "unfinished_uploadDate_idx",
+        def = "{'uploadDate': 1}",
+        partialFilter = "{'status': { $in: ['PENDING', 'COMPLETING'] }}")
 
 public class FileMetadata {
 
@@ -34,8 +70,16 @@ public class FileMetadata {
     private Set<String> tags;
     private long uploadDate;
     private String contentType;
+    private ContentTypeStatus contentTypeStatus;
     private long size;
+    // Set if the content is stored compressed, the size is then the size of the original content
+    private String contentEncoding;
+    private Long storedSize;
     private String hash;
+    // Files stored before the algorithm became configurable have no value, their hash is SHA-256
+    private String hashAlgorithm;
+    private String checksum;
+    private String checksumAlgorithm;
     private FileStatus status;
 
     @Indexed(name = "inStorageId_idx", unique = true, background = true,
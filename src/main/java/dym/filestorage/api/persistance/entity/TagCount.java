@@ -0,0 +1,33 @@
+package dym.filestorage.api.persistance.entity;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Number of ACTIVE files having a tag within a scope. The scope is either a single user's files or all public files.
+ */
+@Data
+@Accessors(chain = true)
+@Document(collection = "tag_catalog")
+@CompoundIndex(name = "scope_tag_idx",
+        def = "{'scope': 1, 'tag': 1}",
+        unique = true)
+public class TagCount {
+
+    public static final String PUBLIC_SCOPE = "public";
+    private static final String USER_SCOPE_PREFIX = "user:";
+
+    @Id
+    private String id;
+
+    private String scope;
+    private String tag;
+    private long count;
+
+    public static String userScope(String userId) {
+        return USER_SCOPE_PREFIX + userId;
+    }
+}
@@ -0,0 +1,10 @@
+package dym.filestorage.api.persistance.repository;
+
+import dym.filestorage.api.persistance.entity.BlobReference;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface BlobReferenceRepository extends MongoRepository<BlobReference, String> {
+
+    long countByHash(String hash);
+
+}
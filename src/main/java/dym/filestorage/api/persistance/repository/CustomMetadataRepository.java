@@ -1,16 +1,25 @@
 package dym.filestorage.api.persistance.repository;
 
+import dym.filestorage.api.common.ContentTypeStatus;
 import dym.filestorage.api.common.FileStatus;
 import dym.filestorage.api.common.Visibility;
 import dym.filestorage.api.persistance.entity.FileMetadata;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Pageable;
+import org.bson.Document;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.springframework.data.mongodb.core.query.Criteria.where;
 import static org.springframework.data.mongodb.core.query.Query.query;
@@ -20,9 +29,48 @@ import static org.springframework.util.StringUtils.hasText;
 @RequiredArgsConstructor
 public class CustomMetadataRepository {
 
+    private static final String SETTINGS = "settings";
+    private static final String HASHING_SETTINGS_ID = "hashing";
+    private static final String LEGACY_HASH_ALGORITHM = "SHA-256";
+
     private final MongoTemplate mongoTemplate;
 
-    public List<FileMetadata> findByUser(String userId, Visibility visibility, String tag, Pageable pageable) {
+    public Window<FileMetadata> findByUser(String userId,
+                                           Visibility visibility,
+                                           String tag,
+                                           Sort sort,
+                                           int size,
+                                           ScrollPosition position) {
+        Query query = userFilesQuery(userId, visibility, tag, sort).with(position).limit(size);
+
+        return mongoTemplate.scroll(query, FileMetadata.class);
+    }
+
+    public Window<FileMetadata> findPublic(String tag, Sort sort, int size, ScrollPosition position) {
+        Query query = publicFilesQuery(tag, sort).with(position).limit(size);
+
+        return mongoTemplate.scroll(query, FileMetadata.class);
+    }
+
+    /**
+     * Finds the user's files like {@link #findByUser}, at most limit files in one go.
+     */
+    public List<FileMetadata> findAllByUser(String userId, Visibility visibility, String tag, Sort sort, int limit) {
+        return mongoTemplate.find(userFilesQuery(userId, visibility, tag, sort).limit(limit), FileMetadata.class);
+    }
+
+    /**
+     * Finds the ACTIVE files with any of the storage ids in one query.
+     */
+    public List<FileMetadata> findActiveByStorageIds(Collection<String> inStorageIds) {
+        return mongoTemplate.find(activeByStorageIdsQuery(inStorageIds), FileMetadata.class);
+    }
+
+    public Query activeByStorageIdsQuery(Collection<String> inStorageIds) {
+        return query(where("inStorageId").in(inStorageIds).and("status").is(FileStatus.ACTIVE));
+    }
+
+    public Query userFilesQuery(String userId, Visibility visibility, String tag, Sort sort) {
         Criteria criteria = where("userId").is(userId).and("status").is(FileStatus.ACTIVE);
 
         if (visibility != null) {
@@ -33,12 +81,10 @@ public class CustomMetadataRepository {
             criteria.and("tags").is(tag);
         }
 
-        Query query = query(criteria).with(pageable);
-
-        return mongoTemplate.find(query, FileMetadata.class);
+        return query(criteria).with(sort);
     }
 
-    public List<FileMetadata> findPublic(String tag, Pageable pageable) {
+    public Query publicFilesQuery(String tag, Sort sort) {
         Criteria criteria = where("status").is(FileStatus.ACTIVE)
                 .and("visibility").is(Visibility.PUBLIC);
 
@@ -46,8 +92,99 @@ public class CustomMetadataRepository {
             criteria.and("tags").is(tag);
         }
 
-        Query query = query(criteria).with(pageable);
+        return query(criteria).with(sort);
+    }
+
+    /**
+     * Finds uploads that are still PENDING or COMPLETING and were started before the cutoff, at most limit files.
+     */
+    public List<FileMetadata> findUnfinishedBefore(long uploadDate, int limit) {
+        return mongoTemplate.find(unfinishedBeforeQuery(uploadDate).limit(limit), FileMetadata.class);
+    }
 
-        return mongoTemplate.find(query, FileMetadata.class);
+    public Query unfinishedBeforeQuery(long uploadDate) {
+        return query(where("status").in(FileStatus.PENDING, FileStatus.COMPLETING).and("uploadDate").lt(uploadDate));
+    }
+
+    /**
+     * Streams the ACTIVE files whose content type is still to be detected, oldest first.
+     * The stream holds a cursor and must be closed.
+     */
+    public Stream<FileMetadata> streamPendingDetection() {
+        return mongoTemplate.stream(pendingDetectionQuery(), FileMetadata.class);
+    }
+
+    public Query pendingDetectionQuery() {
+        return query(where("status").is(FileStatus.ACTIVE).and("contentTypeStatus").is(ContentTypeStatus.PENDING))
+                .with(Sort.by("uploadDate"));
+    }
+
+    /**
+     * Sets the content type of an ACTIVE file without touching the rest of the document,
+     * so that a concurrent deletion is not overwritten.
+     */
+    public void updateContentType(String id, String contentType, ContentTypeStatus contentTypeStatus) {
+        Query query = query(where("_id").is(id).and("status").is(FileStatus.ACTIVE));
+        Update update = new Update()
+                .set("contentType", contentType)
+                .set("contentTypeStatus", contentTypeStatus);
+
+        mongoTemplate.updateFirst(query, update, FileMetadata.class);
+    }
+
+    /**
+     * Atomically moves a file from one status to another.
+     *
+     * @return the updated file, or empty if the file is not in the expected status anymore
+     */
+    public Optional<FileMetadata> transitionStatus(String id, FileStatus from, FileStatus to) {
+        Query query = query(where("_id").is(id).and("status").is(from));
+        Update update = new Update().set("status", to);
+
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), FileMetadata.class));
+    }
+
+    /**
+     * Makes a file ACTIVE, writing everything known after the upload in the same update.
+     * Throws {@link org.springframework.dao.DuplicateKeyException} if the user already has a file with the same hash.
+     *
+     * @return false if the file is not in the expected status anymore
+     */
+    public boolean activate(FileMetadata metadata, FileStatus from) {
+        Query query = query(where("_id").is(metadata.getId()).and("status").is(from));
+        Update update = new Update()
+                .set("status", FileStatus.ACTIVE)
+                .set("hash", metadata.getHash())
+                .set("hashAlgorithm", metadata.getHashAlgorithm())
+                .set("checksum", metadata.getChecksum())
+                .set("checksumAlgorithm", metadata.getChecksumAlgorithm())
+                .set("size", metadata.getSize())
+                .set("contentEncoding", metadata.getContentEncoding())
+                .set("storedSize", metadata.getStoredSize())
+                .set("contentType", metadata.getContentType())
+                .set("contentTypeStatus", metadata.getContentTypeStatus());
+
+        return mongoTemplate.updateFirst(query, update, FileMetadata.class).getMatchedCount() == 1;
+    }
+
+    /**
+     * Returns the hash algorithm of the stored files, recording the given one if no file was stored yet.
+     */
+    public String recordHashAlgorithm(String algorithm) {
+        Query query = query(where("_id").is(HASHING_SETTINGS_ID));
+        Document settings = mongoTemplate.findOne(query, Document.class, SETTINGS);
+        if (settings == null) {
+            // Files stored before the algorithm was recorded keep theirs, with SHA-256 when it is not set
+            Query storedFile = query(where("status").is(FileStatus.ACTIVE));
+            storedFile.fields().include("hashAlgorithm");
+            FileMetadata file = mongoTemplate.findOne(storedFile, FileMetadata.class);
+            String storedAlgorithm = file == null ? algorithm
+                    : file.getHashAlgorithm() != null ? file.getHashAlgorithm() : LEGACY_HASH_ALGORITHM;
+            Update update = new Update().setOnInsert("algorithm", storedAlgorithm);
+            settings = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), Document.class, SETTINGS);
+        }
+        return settings.getString("algorithm");
     }
 }
@@ -0,0 +1,49 @@
+package dym.filestorage.api.persistance.repository;
+
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Drops the indexes of earlier versions that the entity mappings no longer declare.
+ * Automatic index creation never drops an index, so a renamed index would stay and keep being updated on every write.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ObsoleteIndexRemover implements ApplicationRunner {
+
+    // Replaced by user_reserved_filename_idx, which also reserves the names of COMPLETING uploads
+    private static final List<String> OBSOLETE_FILE_INDEXES = List.of("user_filename_idx");
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        IndexOperations indexOps = mongoTemplate.indexOps(FileMetadata.class);
+        List<String> existing = indexOps.getIndexInfo().stream()
+                .map(IndexInfo::getName)
+                .toList();
+        for (String name : OBSOLETE_FILE_INDEXES) {
+            if (!existing.contains(name)) {
+                continue;
+            }
+            try {
+                indexOps.dropIndex(name);
+                log.info("Dropped obsolete index {}", name);
+            } catch (DataAccessException e) {
+                // Instances starting together may drop it first
+                log.warn("Could not drop obsolete index {}", name, e);
+            }
+        }
+    }
+}
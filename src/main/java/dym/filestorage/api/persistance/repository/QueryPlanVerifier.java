@@ -0,0 +1,143 @@
+package dym.filestorage.api.persistance.repository;
+
+import dym.filestorage.api.common.FileStatus;
+import dym.filestorage.api.common.Visibility;
+import dym.filestorage.api.dto.ListRequest;
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import dym.filestorage.api.persistance.entity.TagCount;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Explains the query shapes used by the metadata repositories on startup,
+ * and reports the ones that would scan the whole collection instead of using an index.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "metadata.verify-query-plans", havingValue = "true", matchIfMissing = true)
+public class QueryPlanVerifier implements ApplicationRunner {
+
+    private static final String SAMPLE_USER = "query-plan-verifier";
+    private static final String SAMPLE_TAG = "tag";
+    private static final String SAMPLE_ID = "00000000-0000-0000-0000-000000000000";
+
+    private final MongoTemplate mongoTemplate;
+    private final CustomMetadataRepository customMetadataRepository;
+    private final TagCatalogRepository tagCatalogRepository;
+
+    public record QueryShape(Class<?> entityClass, Query query) {
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        List<String> collectionScans = findCollectionScans();
+        if (collectionScans.isEmpty()) {
+            log.info("All metadata query shapes are index-backed");
+        } else {
+            collectionScans.forEach(shape -> log.warn("Query shape '{}' does a collection scan", shape));
+        }
+    }
+
+    /**
+     * @return names of the query shapes whose winning plan contains a collection scan
+     */
+    public List<String> findCollectionScans() {
+        return queryShapes().entrySet().stream()
+                .filter(shape -> isCollectionScan(explain(shape.getValue())))
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    public Map<String, QueryShape> queryShapes() {
+        Map<String, QueryShape> shapes = new LinkedHashMap<>();
+        // Every sort a listing request accepts
+        for (String field : ListRequest.SORT_FIELDS) {
+            for (Sort.Direction direction : Sort.Direction.values()) {
+                Sort sort = ListRequest.sortBy(field, direction);
+                String order = " by " + field + " " + direction.name().toLowerCase(Locale.ROOT);
+                shapes.put("user files" + order,
+                        files(customMetadataRepository.userFilesQuery(SAMPLE_USER, null, null, sort)));
+                shapes.put("user files by visibility" + order,
+                        files(customMetadataRepository.userFilesQuery(SAMPLE_USER, Visibility.PRIVATE, null, sort)));
+                shapes.put("user files by tag" + order,
+                        files(customMetadataRepository.userFilesQuery(SAMPLE_USER, null, SAMPLE_TAG, sort)));
+                shapes.put("public files" + order, files(customMetadataRepository.publicFilesQuery(null, sort)));
+                shapes.put("public files by tag" + order,
+                        files(customMetadataRepository.publicFilesQuery(SAMPLE_TAG, sort)));
+            }
+        }
+        shapes.put("active file by storage id",
+                files(query(where("inStorageId").is(SAMPLE_ID).and("status").is(FileStatus.ACTIVE))));
+        shapes.put("active files by storage ids",
+                files(customMetadataRepository.activeByStorageIdsQuery(List.of(SAMPLE_ID))));
+        shapes.put("pending file by storage id",
+                files(query(where("inStorageId").is(SAMPLE_ID).and("status").is(FileStatus.PENDING))));
+        shapes.put("pending content type detections", files(customMetadataRepository.pendingDetectionQuery()));
+        shapes.put("unfinished uploads", files(customMetadataRepository.unfinishedBeforeQuery(0)));
+        shapes.put("accessible tags", new QueryShape(TagCount.class,
+                tagCatalogRepository.tagsQuery(List.of(TagCount.userScope(SAMPLE_USER), TagCount.PUBLIC_SCOPE))));
+        return shapes;
+    }
+
+    public Document explain(QueryShape shape) {
+        MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext()
+                .getRequiredPersistentEntity(shape.entityClass());
+        QueryMapper queryMapper = new QueryMapper(mongoTemplate.getConverter());
+
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(shape.entityClass()))
+                .find(queryMapper.getMappedObject(shape.query().getQueryObject(), entity))
+                .sort(queryMapper.getMappedSort(shape.query().getSortObject(), entity))
+                .explain();
+    }
+
+    private static QueryShape files(Query query) {
+        return new QueryShape(FileMetadata.class, query);
+    }
+
+    /**
+     * Looks for a COLLSCAN stage anywhere in the winning plan of an explain output.
+     */
+    public static boolean isCollectionScan(Object explainNode) {
+        if (explainNode instanceof Document document) {
+            Object winningPlan = document.get("winningPlan");
+            if (winningPlan != null) {
+                return containsStage(winningPlan, "COLLSCAN");
+            }
+            return document.values().stream().anyMatch(QueryPlanVerifier::isCollectionScan);
+        }
+        if (explainNode instanceof List<?> list) {
+            return list.stream().anyMatch(QueryPlanVerifier::isCollectionScan);
+        }
+        return false;
+    }
+
+    private static boolean containsStage(Object planNode, String stage) {
+        if (planNode instanceof Document document) {
+            return stage.equals(document.get("stage"))
+                    || document.values().stream().anyMatch(value -> containsStage(value, stage));
+        }
+        if (planNode instanceof List<?> list) {
+            return list.stream().anyMatch(value -> containsStage(value, stage));
+        }
+        return false;
+    }
+}
@@ -0,0 +1,194 @@
+package dym.filestorage.api.persistance.repository;
+
+import dym.filestorage.api.helper.FileHelper;
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import dym.filestorage.api.persistance.entity.TagCount;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.RenameCollectionOptions;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+@Component
+@RequiredArgsConstructor
+public class TagCatalogRepository {
+
+    private static final String REBUILT_CATALOG = "tag_catalog_rebuild";
+    private static final String LOCKS = "locks";
+    private static final String REBUILD_LOCK = "tag-catalog-rebuild";
+    private static final int NORMALIZE_BATCH_SIZE = 1000;
+
+    // Counts every distinct tag of a file once, the scope is added by the caller.
+    // Tags are counted as stored: they are normalized when files are uploaded, and by the rebuild before counting
+    private static final List<String> DISTINCT_FILE_TAGS = List.of(
+            "{ $match: { 'status': 'ACTIVE' } }",
+            "{ $unwind: '$tags' }",
+            "{ $group: { _id: { file: '$_id', userId: '$userId', visibility: '$visibility', tag: '$tags' } } }"
+    );
+
+    private static final List<String> USER_SCOPE_PIPELINE = List.of(
+            "{ $group: { _id: { scope: { $concat: [ 'user:', '$_id.userId' ] }, tag: '$_id.tag' }, count: { $sum: 1 } } }"
+    );
+
+    private static final List<String> PUBLIC_SCOPE_PIPELINE = List.of(
+            "{ $match: { '_id.visibility': 'PUBLIC' } }",
+            "{ $group: { _id: { scope: 'public', tag: '$_id.tag' }, count: { $sum: 1 } } }"
+    );
+
+    private static final List<String> MERGE_INTO_REBUILT_CATALOG = List.of(
+            "{ $project: { _id: 0, scope: '$_id.scope', tag: '$_id.tag', count: 1 } }",
+            "{ $merge: { into: '" + REBUILT_CATALOG + "', on: [ 'scope', 'tag' ], whenMatched: 'replace', whenNotMatched: 'insert' } }"
+    );
+
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Adds the delta to the counts of the tags in every scope, in one round-trip.
+     * Tags whose count drops to zero are removed.
+     */
+    public void updateCounts(Collection<String> scopes, Collection<String> tags, long delta) {
+        if (scopes.isEmpty() || tags.isEmpty()) {
+            return;
+        }
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TagCount.class);
+        for (String scope : scopes) {
+            for (String tag : tags) {
+                bulk.upsert(query(where("scope").is(scope).and("tag").is(tag)), new Update().inc("count", delta));
+            }
+        }
+        bulk.execute();
+
+        if (delta < 0) {
+            mongoTemplate.remove(query(where("scope").in(scopes).and("tag").in(tags).and("count").lte(0)), TagCount.class);
+        }
+    }
+
+    /**
+     * @return distinct tags used in any of the scopes, sorted
+     */
+    public List<String> findTags(Collection<String> scopes) {
+        return mongoTemplate.findDistinct(tagsQuery(scopes), "tag", TagCount.class, String.class).stream()
+                .sorted()
+                .toList();
+    }
+
+    public Query tagsQuery(Collection<String> scopes) {
+        return query(where("scope").in(scopes).and("count").gt(0));
+    }
+
+    public boolean isEmpty() {
+        return !mongoTemplate.exists(new Query(), TagCount.class);
+    }
+
+    /**
+     * Recomputes the whole catalog from the ACTIVE files into a separate collection, which then replaces
+     * the catalog in one rename, so that readers never see a partial catalog.
+     * Tags of files uploaded before tags were normalized are lower-cased first.
+     * Counts changed by uploads and deletions while the rebuild runs are not carried over.
+     */
+    public void rebuild() {
+        normalizeStoredTags();
+
+        mongoTemplate.dropCollection(REBUILT_CATALOG);
+        // $merge needs the unique index on its join fields, the rename keeps it
+        mongoTemplate.indexOps(REBUILT_CATALOG).createIndex(new Index()
+                .on("scope", Sort.Direction.ASC)
+                .on("tag", Sort.Direction.ASC)
+                .unique()
+                .named("scope_tag_idx"));
+
+        var files = mongoTemplate.getCollection(mongoTemplate.getCollectionName(FileMetadata.class));
+        files.aggregate(pipeline(DISTINCT_FILE_TAGS, USER_SCOPE_PIPELINE, MERGE_INTO_REBUILT_CATALOG)).toCollection();
+        files.aggregate(pipeline(DISTINCT_FILE_TAGS, PUBLIC_SCOPE_PIPELINE, MERGE_INTO_REBUILT_CATALOG)).toCollection();
+
+        mongoTemplate.getCollection(REBUILT_CATALOG).renameCollection(
+                new MongoNamespace(mongoTemplate.getDb().getName(), mongoTemplate.getCollectionName(TagCount.class)),
+                new RenameCollectionOptions().dropTarget(true));
+    }
+
+    /**
+     * Lower-cases the stored tags that are not, like uploads do.
+     * The tags are normalized in Java, because $toLower only lower-cases ASCII letters.
+     */
+    private void normalizeStoredTags() {
+        Query query = query(where("tags").regex("[\\p{Lu}\\p{Lt}]"));
+        query.fields().include("tags");
+
+        List<FileMetadata> batch = new ArrayList<>(NORMALIZE_BATCH_SIZE);
+        try (Stream<FileMetadata> files = mongoTemplate.stream(query, FileMetadata.class)) {
+            files.forEach(file -> {
+                batch.add(file);
+                if (batch.size() == NORMALIZE_BATCH_SIZE) {
+                    updateTags(batch);
+                    batch.clear();
+                }
+            });
+        }
+        updateTags(batch);
+    }
+
+    private void updateTags(List<FileMetadata> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileMetadata.class);
+        for (FileMetadata file : files) {
+            Set<String> tags = file.getTags().stream()
+                    .map(FileHelper::normalizeTag)
+                    .collect(Collectors.toSet());
+            bulk.updateOne(query(where("_id").is(file.getId())), new Update().set("tags", tags));
+        }
+        bulk.execute();
+    }
+
+    /**
+     * Takes the rebuild lock for the lease, unless another instance holds it.
+     * The lease bounds how long a crashed instance blocks rebuilds.
+     */
+    public boolean tryLockRebuild(String owner, Duration lease) {
+        Date now = new Date();
+        Query query = query(where("_id").is(REBUILD_LOCK).and("expiresAt").lt(now));
+        Update update = new Update()
+                .set("owner", owner)
+                .set("expiresAt", new Date(now.getTime() + lease.toMillis()));
+        try {
+            // Inserts the lock if there is none, fails on the _id if a live lock exists
+            mongoTemplate.upsert(query, update, LOCKS);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    public void unlockRebuild(String owner) {
+        mongoTemplate.remove(query(where("_id").is(REBUILD_LOCK).and("owner").is(owner)), LOCKS);
+    }
+
+    @SafeVarargs
+    private static List<Document> pipeline(List<String>... stages) {
+        return Stream.of(stages)
+                .flatMap(List::stream)
+                .map(Document::parse)
+                .toList();
+    }
+}
@@ -0,0 +1,212 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.common.Visibility;
+import dym.filestorage.api.dto.ListRequest;
+import dym.filestorage.api.exception.ApiException;
+import dym.filestorage.api.io.BufferPool;
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import dym.filestorage.api.persistance.repository.CustomMetadataRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static dym.filestorage.api.helper.FileHelper.fileKeyFrom;
+import static dym.filestorage.api.helper.FileHelper.normalizeTag;
+import static java.lang.String.format;
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * Streams several files as one ZIP archive, built while it is sent, without temporary files.
+ * Files of compressible content types (storage.compression.types) are deflated, other files are stored as they are.
+ * A ZIP stream needs the CRC-32 of a stored entry before its content: it is taken from the metadata
+ * with the CRC32 checksum, otherwise computed in a first pass over the file.
+ */
+@Service
+public class ArchiveService {
+
+    private static final String CRC32_ALGORITHM = "CRC32";
+
+    private final CustomMetadataRepository customMetadataRepository;
+    private final FileStorageService fileStorageService;
+    private final CompressionPolicy compressionPolicy;
+    private final BufferPool bufferPool;
+    private final int maxFiles;
+
+    public ArchiveService(CustomMetadataRepository customMetadataRepository,
+                          FileStorageService fileStorageService,
+                          CompressionPolicy compressionPolicy,
+                          @Qualifier("downloadBufferPool") BufferPool bufferPool,
+                          @Value("${downloads.archive.max-files:10000}") int maxFiles) {
+        this.customMetadataRepository = customMetadataRepository;
+        this.fileStorageService = fileStorageService;
+        this.compressionPolicy = compressionPolicy;
+        this.bufferPool = bufferPool;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Resolves the files of an archive with one query: the files with the storage ids in the given order,
+     * or without ids the user's files selected by the list request.
+     *
+     * @throws FileNotFoundException if any of the files does not exist or is private to another user
+     */
+    public List<FileMetadata> findFiles(List<String> inStorageIds, ListRequest listRequest) throws FileNotFoundException {
+        if (inStorageIds != null && !inStorageIds.isEmpty()) {
+            Set<String> ids = new LinkedHashSet<>(inStorageIds);
+            checkMaxFiles(ids.size());
+
+            Map<String, FileMetadata> filesById = customMetadataRepository.findActiveByStorageIds(ids).stream()
+                    .filter(metadata -> isAccessible(metadata, listRequest.getUserId()))
+                    .collect(Collectors.toMap(FileMetadata::getInStorageId, Function.identity()));
+            List<FileMetadata> files = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                FileMetadata metadata = filesById.get(id);
+                if (metadata == null) {
+                    throw new FileNotFoundException("File not found: " + id);
+                }
+                files.add(metadata);
+            }
+            return files;
+        }
+
+        if (!hasText(listRequest.getUserId())) {
+            throw new ApiException("UserId required!");
+        }
+        List<FileMetadata> files = customMetadataRepository.findAllByUser(
+                listRequest.getUserId(),
+                listRequest.getVisibility(),
+                normalizeTag(listRequest.getTag()),
+                listRequest.getSortBy(),
+                maxFiles + 1);
+        checkMaxFiles(files.size());
+        return files;
+    }
+
+    /**
+     * Writes the files as a ZIP archive to the output stream, which is left open.
+     * Entries are named after the files, repeated names get a number.
+     * Names are flattened, so that the archive extracts into a single directory.
+     */
+    public void writeArchive(List<FileMetadata> files, OutputStream outputStream) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            ZipOutputStream zip = new ZipOutputStream(outputStream);
+            Set<String> names = new HashSet<>();
+            for (FileMetadata metadata : files) {
+                zip.putNextEntry(entryFor(metadata, uniqueName(entryName(metadata.getFileName()), names), zip, buffer));
+                try (InputStream inputStream = openContent(metadata)) {
+                    byte[] array = buffer.array();
+                    int bytesRead;
+                    while ((bytesRead = inputStream.read(array)) != -1) {
+                        zip.write(array, 0, bytesRead);
+                    }
+                }
+                zip.closeEntry();
+            }
+            zip.finish();
+            zip.flush();
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private ZipEntry entryFor(FileMetadata metadata, String name, ZipOutputStream zip, ByteBuffer buffer)
+            throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(metadata.getUploadDate());
+
+        if (compressionPolicy.isCompressible(metadata.getContentType())) {
+            entry.setMethod(ZipEntry.DEFLATED);
+            zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+        } else {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(metadata.getSize());
+            entry.setCompressedSize(metadata.getSize());
+            entry.setCrc(crc32(metadata, buffer));
+        }
+        return entry;
+    }
+
+    /**
+     * The CRC-32 of the original content: the recorded checksum if it is a CRC-32, also for files stored compressed,
+     * otherwise computed over the content.
+     */
+    private long crc32(FileMetadata metadata, ByteBuffer buffer) throws IOException {
+        if (CRC32_ALGORITHM.equals(metadata.getChecksumAlgorithm()) && metadata.getChecksum() != null) {
+            return Long.parseLong(metadata.getChecksum(), 16);
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream inputStream = openContent(metadata)) {
+            byte[] array = buffer.array();
+            int bytesRead;
+            while ((bytesRead = inputStream.read(array)) != -1) {
+                crc.update(array, 0, bytesRead);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private InputStream openContent(FileMetadata metadata) throws IOException {
+        InputStream inputStream = fileStorageService.loadFile(fileKeyFrom(metadata));
+        return CompressionPolicy.GZIP.equals(metadata.getContentEncoding())
+                ? new GZIPInputStream(inputStream, bufferPool.getBufferSize())
+                : inputStream;
+    }
+
+    private void checkMaxFiles(int count) {
+        if (count > maxFiles) {
+            throw new ApiException(format("An archive can contain at most %d files", maxFiles));
+        }
+    }
+
+    private static boolean isAccessible(FileMetadata metadata, String userId) {
+        return metadata.getVisibility() != Visibility.PRIVATE || metadata.getUserId().equals(userId);
+    }
+
+    /**
+     * File names are user input: a leading separator or a drive letter would make an entry absolute,
+     * and inner separators would create directories, so they are removed or replaced.
+     */
+    static String entryName(String fileName) {
+        String name = fileName;
+        if (name.length() >= 2 && name.charAt(1) == ':' && Character.isLetter(name.charAt(0))) {
+            name = name.substring(2);
+        }
+        int start = 0;
+        while (start < name.length() && (name.charAt(start) == '/' || name.charAt(start) == '\\')) {
+            start++;
+        }
+        name = name.substring(start).replace('/', '_').replace('\\', '_');
+        return name.isBlank() || name.equals(".") || name.equals("..") ? "file" : name;
+    }
+
+    private static String uniqueName(String fileName, Set<String> names) {
+        String name = fileName;
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        for (int i = 2; !names.add(name); i++) {
+            name = base + " (" + i + ")" + extension;
+        }
+        return name;
+    }
+}
@@ -0,0 +1,155 @@
+package dym.filestorage.api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dym.filestorage.api.io.BufferPool;
+import dym.filestorage.api.io.ByteBufferResource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the content of small, frequently downloaded files in direct (off-heap) buffers, keyed by the content identifier
+ * (the SHA-256 hash, qualified with the encoding of compressed content).
+ * Stored content never changes, so cached entries need no invalidation and identical files share one entry.
+ * The cache is bounded by the total size of the content, and Caffeine's frequency-based admission keeps
+ * one-off downloads from evicting popular files.
+ * Files of downloads.sendfile-min-size and larger are not cached: sendfile moves them from the page cache
+ * to the socket without copying, which a cached buffer would only replace with a copy.
+ * Hit, miss and eviction counters are published as "cache.*" metrics with the name "fileContent".
+ * <p>
+ * Evicted buffers are released by the garbage collector once the downloads still reading them are finished,
+ * so -XX:MaxDirectMemorySize should leave some room above storage.cache.max-size-bytes.
+ */
+@Slf4j
+@Primary
+@Service
+@ConditionalOnProperty(name = "storage.cache.enabled", havingValue = "true")
+public class CachingStorageService implements FileStorageService {
+
+    private final FileStorageService delegate;
+    private final long maxEntrySize;
+    private final BufferPool downloadBufferPool;
+    private final Cache<String, ByteBuffer> cache;
+
+    // The delegate is the storage implementation selected by storage.type
+    public CachingStorageService(FileStorageService delegate,
+                                 @Value("${storage.cache.max-size-bytes:268435456}") long maxSizeBytes,
+                                 @Value("${storage.cache.max-entry-size:262144}") long maxEntrySize,
+                                 @Value("${downloads.sendfile-min-size:49152}") long sendfileMinSize,
+                                 @Qualifier("downloadBufferPool") BufferPool downloadBufferPool,
+                                 MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.maxEntrySize = Math.min(maxEntrySize, sendfileMinSize - 1);
+        this.downloadBufferPool = downloadBufferPool;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSizeBytes)
+                .weigher((String contentId, ByteBuffer content) -> content.capacity())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "fileContent");
+        log.info("Caching files up to {} bytes, {} bytes in total, over {}",
+                this.maxEntrySize, maxSizeBytes, delegate.getClass().getSimpleName());
+    }
+
+    @Override
+    public void saveFile(InputStream inputStream, String fileKey) throws IOException {
+        delegate.saveFile(inputStream, fileKey);
+    }
+
+    @Override
+    public void saveFile(InputStream inputStream, String fileKey, Supplier<String> contentId) throws IOException {
+        delegate.saveFile(inputStream, fileKey, contentId);
+    }
+
+    @Override
+    public InputStream loadFile(String fileKey) throws IOException {
+        return delegate.loadFile(fileKey);
+    }
+
+    @Override
+    public Resource loadResource(String fileKey) throws IOException {
+        return delegate.loadResource(fileKey);
+    }
+
+    @Override
+    public Resource loadResource(String fileKey, String contentId) throws IOException {
+        if (contentId == null) {
+            return delegate.loadResource(fileKey);
+        }
+
+        ByteBuffer content = cache.getIfPresent(contentId);
+        if (content != null) {
+            return new ByteBufferResource(content, contentId);
+        }
+
+        Resource resource = delegate.loadResource(fileKey, contentId);
+        long size = resource.contentLength();
+        if (size > maxEntrySize) {
+            return resource;
+        }
+
+        try {
+            content = cache.get(contentId, key -> readContent(resource, (int) size));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new ByteBufferResource(content, contentId);
+    }
+
+    @Override
+    public void deleteFile(String fileKey) throws IOException {
+        // Other files may have the same content; entries of deleted files are evicted as they become unpopular
+        delegate.deleteFile(fileKey);
+    }
+
+    private ByteBuffer readContent(Resource resource, int size) {
+        ByteBuffer content = ByteBuffer.allocateDirect(size);
+        try {
+            if (resource.isFile()) {
+                // Files are read straight into the direct buffer
+                try (FileChannel channel = FileChannel.open(resource.getFile().toPath())) {
+                    while (content.hasRemaining() && channel.read(content) != -1) {
+                        // Keep reading
+                    }
+                }
+            } else {
+                readStream(resource, content);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (content.hasRemaining()) {
+            throw new UncheckedIOException(new IOException("Stored content is shorter than " + size + " bytes"));
+        }
+        return content.flip();
+    }
+
+    // Streams only read into arrays, so the content goes through a pooled download buffer
+    private void readStream(Resource resource, ByteBuffer content) throws IOException {
+        ByteBuffer buffer = downloadBufferPool.acquire();
+        try (InputStream inputStream = resource.getInputStream()) {
+            byte[] array = buffer.array();
+            int bytesRead;
+            while (content.hasRemaining()
+                    && (bytesRead = inputStream.read(array, 0, Math.min(array.length, content.remaining()))) != -1) {
+                content.put(array, 0, bytesRead);
+            }
+        } finally {
+            downloadBufferPool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.io.GzipCompressingInputStream;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeType;
+
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Decides which uploads are stored compressed: with storage.compression.enabled,
+ * files of the configured content types (wildcards allowed) are gzip-compressed at the configured level.
+ */
+@Component
+public class CompressionPolicy {
+
+    public static final String GZIP = "gzip";
+
+    @Getter
+    private final boolean enabled;
+    private final int level;
+    private final List<MimeType> types;
+
+    public CompressionPolicy(@Value("${storage.compression.enabled:false}") boolean enabled,
+                             @Value("${storage.compression.level:1}") int level,
+                             @Value("${storage.compression.types:text/*,application/json,application/xml}") List<String> types) {
+        this.enabled = enabled;
+        this.level = level;
+        this.types = types.stream().map(MimeType::valueOf).toList();
+    }
+
+    public boolean shouldCompress(String contentType) {
+        return enabled && isCompressible(contentType);
+    }
+
+    /**
+     * @return true if the content type is one of the configured types, whether compression is enabled or not
+     */
+    public boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        try {
+            MimeType mimeType = MimeType.valueOf(contentType);
+            return types.stream().anyMatch(type -> type.includes(mimeType));
+        } catch (InvalidMimeTypeException e) {
+            return false;
+        }
+    }
+
+    public GzipCompressingInputStream compress(InputStream inputStream) {
+        return new GzipCompressingInputStream(inputStream, level);
+    }
+}
@@ -0,0 +1,212 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.io.FileSyncer;
+import dym.filestorage.api.io.HashingStreamWrapper;
+import dym.filestorage.api.io.PipelinedFileWriter;
+import dym.filestorage.api.io.StreamDigest;
+import dym.filestorage.api.persistance.entity.BlobReference;
+import dym.filestorage.api.persistance.repository.BlobReferenceRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Stores every distinct content once, under its SHA-256 hash. File keys are references to the blobs,
+ * and a blob is removed from the disk when its last reference is deleted.
+ * When uploads are hashed with SHA-256, blobs are named by the content identifier computed by the caller,
+ * otherwise the stored bytes are hashed here.
+ * <p>
+ * Reference changes of a blob are serialized by locks held in memory, so a storage directory must be used
+ * by a single instance of the service: with several instances, one could remove a blob that another has just
+ * referenced.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "storage.type", havingValue = "dedup")
+public class ContentAddressedStorageService implements FileStorageService {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path blobLocation;
+    private final Path tempLocation;
+    private final BlobReferenceRepository blobReferenceRepository;
+    private final PipelinedFileWriter fileWriter;
+    private final FileSyncer fileSyncer;
+    // Content identifiers of other algorithms may collide, and are not trusted to name blobs
+    private final boolean trustContentIds;
+
+    // Serializes reference changes of the same blob, so that a blob is never removed while being re-referenced
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    public ContentAddressedStorageService(@Value("${storage.local}") String uploadDir,
+                                          PipelinedFileWriter fileWriter,
+                                          FileSyncer fileSyncer,
+                                          BlobReferenceRepository blobReferenceRepository,
+                                          StreamDigestFactory streamDigestFactory) throws IOException {
+        Path fileStorageLocation = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.blobLocation = fileStorageLocation.resolve("blobs");
+        this.tempLocation = fileStorageLocation.resolve("tmp");
+        this.blobReferenceRepository = blobReferenceRepository;
+        this.fileWriter = fileWriter;
+        this.fileSyncer = fileSyncer;
+        this.trustContentIds = StreamDigest.SHA_256.equals(streamDigestFactory.getHashAlgorithm());
+        Files.createDirectories(blobLocation);
+        Files.createDirectories(tempLocation);
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public void saveFile(InputStream inputStream, String fileKey) throws IOException {
+        store(inputStream, fileKey, null);
+    }
+
+    @Override
+    public void saveFile(InputStream inputStream, String fileKey, Supplier<String> contentId) throws IOException {
+        store(inputStream, fileKey, trustContentIds ? contentId : null);
+    }
+
+    private void store(InputStream inputStream, String fileKey, Supplier<String> contentId) throws IOException {
+        if (blobReferenceRepository.existsById(fileKey)) {
+            throw new FileAlreadyExistsException(fileKey);
+        }
+
+        Path tempFile = createTempFile();
+        HashingStreamWrapper hashingWrapper = contentId == null ? new HashingStreamWrapper(inputStream) : null;
+
+        long size;
+        String hash;
+        try {
+            size = fileWriter.write(hashingWrapper != null ? hashingWrapper : inputStream,
+                    tempFile, StandardOpenOption.TRUNCATE_EXISTING);
+            fileSyncer.sync(tempFile);
+            hash = hashingWrapper != null ? HexFormat.of().formatHex(hashingWrapper.getHash()) : contentId.get();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw new IOException("Could not store file with ID " + fileKey, e);
+        }
+        Path blobPath = blobPath(hash);
+
+        Lock lock = lockFor(hash);
+        lock.lock();
+        try {
+            if (Files.exists(blobPath)) {
+                log.debug("Blob {} already stored, adding reference {}", hash, fileKey);
+                Files.delete(tempFile);
+            } else {
+                storeBlob(tempFile, blobPath);
+            }
+
+            blobReferenceRepository.insert(new BlobReference()
+                    .setFileKey(fileKey)
+                    .setHash(hash)
+                    .setSize(size));
+        } catch (DuplicateKeyException e) {
+            removeIfUnreferenced(hash);
+            throw new FileAlreadyExistsException(fileKey);
+        } catch (IOException | RuntimeException e) {
+            // The blob may have been moved into place for this reference only
+            Files.deleteIfExists(tempFile);
+            try {
+                removeIfUnreferenced(hash);
+            } catch (IOException | RuntimeException cleanupFailure) {
+                e.addSuppressed(cleanupFailure);
+            }
+            throw new IOException("Could not store file with ID " + fileKey, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void storeBlob(Path tempFile, Path blobPath) throws IOException {
+        fileSyncer.createDirectories(blobPath.getParent());
+        Files.move(tempFile, blobPath, StandardCopyOption.ATOMIC_MOVE);
+        fileSyncer.sync(blobPath.getParent());
+    }
+
+    @Override
+    public InputStream loadFile(String fileKey) throws IOException {
+        return Files.newInputStream(resolve(fileKey));
+    }
+
+    @Override
+    public Resource loadResource(String fileKey) throws IOException {
+        return new FileSystemResource(resolve(fileKey));
+    }
+
+    @Override
+    public void deleteFile(String fileKey) throws IOException {
+        var reference = blobReferenceRepository.findById(fileKey);
+        if (reference.isEmpty()) {
+            return;
+        }
+
+        String hash = reference.get().getHash();
+        Lock lock = lockFor(hash);
+        lock.lock();
+        try {
+            blobReferenceRepository.deleteById(fileKey);
+            removeIfUnreferenced(hash);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeIfUnreferenced(String hash) throws IOException {
+        if (blobReferenceRepository.countByHash(hash) == 0) {
+            log.debug("Removing unreferenced blob {}", hash);
+            Files.deleteIfExists(blobPath(hash));
+        }
+    }
+
+    private Path resolve(String fileKey) throws FileNotFoundException {
+        BlobReference reference = blobReferenceRepository.findById(fileKey)
+                .orElseThrow(() -> new FileNotFoundException("File not found " + fileKey));
+
+        Path path = blobPath(reference.getHash());
+        if (!Files.exists(path)) {
+            throw new FileNotFoundException("Blob not found " + path);
+        }
+        return path;
+    }
+
+    private Path createTempFile() throws IOException {
+        try {
+            return Files.createTempFile(tempLocation, "upload", ".tmp");
+        } catch (NoSuchFileException e) {
+            // Removed while the service is running
+            Files.createDirectories(tempLocation);
+            return Files.createTempFile(tempLocation, "upload", ".tmp");
+        }
+    }
+
+    private Path blobPath(String hash) {
+        // Two levels of fan-out keep the blob directories small
+        return blobLocation.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private Lock lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+}
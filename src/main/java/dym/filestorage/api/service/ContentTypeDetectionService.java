@@ -0,0 +1,171 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.common.ContentTypeStatus;
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import dym.filestorage.api.persistance.repository.CustomMetadataRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static dym.filestorage.api.helper.FileHelper.fileKeyFrom;
+
+/**
+ * Detects content types of stored files in the background. Detection requests are queued to a bounded queue
+ * served by a fixed pool of workers. All workers share one Tika detector, which is expensive to build.
+ * Detections that were still queued when the service stopped are queued again on the next start.
+ */
+@Slf4j
+@Service
+public class ContentTypeDetectionService {
+
+    // Containers are told apart by their entries, which may lie beyond the sniffed prefix (OOXML, ODF, OLE2 documents)
+    private static final List<MediaType> CONTAINER_TYPES = List.of(
+            MediaType.APPLICATION_ZIP, MediaType.application("x-tika-msoffice"));
+
+    private final CustomMetadataRepository customMetadataRepository;
+    private final FileStorageService fileStorageService;
+    private final FileMetadataCache fileMetadataCache;
+    private final FileMetrics fileMetrics;
+    private final Detector detector;
+    private final MediaTypeRegistry mediaTypeRegistry;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService sniffingExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ContentTypeDetectionService(CustomMetadataRepository customMetadataRepository,
+                                       FileStorageService fileStorageService,
+                                       FileMetadataCache fileMetadataCache,
+                                       FileMetrics fileMetrics,
+                                       @Value("${detection.workers:2}") int workers,
+                                       @Value("${detection.queue-capacity:1000}") int queueCapacity) {
+        this.customMetadataRepository = customMetadataRepository;
+        this.fileStorageService = fileStorageService;
+        this.fileMetadataCache = fileMetadataCache;
+        this.fileMetrics = fileMetrics;
+        TikaConfig tikaConfig = TikaConfig.getDefaultConfig();
+        this.detector = tikaConfig.getDetector();
+        this.mediaTypeRegistry = tikaConfig.getMediaTypeRegistry();
+        // When the queue is full the uploading thread detects the content type itself, which slows down uploads
+        // instead of dropping detections
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("content-type-detector-", 0).daemon().factory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Queues the content type detection of an ACTIVE file, the result is saved to the file metadata.
+     */
+    public void submit(FileMetadata fileMetadata) {
+        executor.execute(() -> detectAndUpdate(fileMetadata));
+    }
+
+    /**
+     * Queues the detections left PENDING by a previous run, e.g. after a crash or a shutdown with a full queue.
+     * Runs on its own thread, as a full queue makes the submitting thread detect content types itself.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void requeuePending() {
+        Thread.ofVirtual().name("content-type-requeue").start(() -> {
+            long count = 0;
+            try (Stream<FileMetadata> pending = customMetadataRepository.streamPendingDetection()) {
+                for (FileMetadata fileMetadata : (Iterable<FileMetadata>) pending::iterator) {
+                    submit(fileMetadata);
+                    count++;
+                }
+            } catch (RuntimeException e) {
+                log.error("Failed to queue pending content type detections", e);
+            }
+            if (count > 0) {
+                log.info("Queued {} pending content type detections", count);
+            }
+        });
+    }
+
+    /**
+     * Detects the content type from the first bytes of a file once they are available.
+     * Completes with null if the content type could not be detected, or if it is a generic or container type
+     * that the whole content may refine.
+     */
+    public CompletableFuture<String> sniff(CompletableFuture<byte[]> prefix, String fileName) {
+        return prefix.thenApplyAsync(bytes -> {
+            try {
+                String contentType = fileMetrics.detection("sniff")
+                        .observeChecked(() -> detect(new ByteArrayInputStream(bytes), fileName));
+                return isConclusive(contentType) ? contentType : null;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to detect content type of {} from the first {} bytes", fileName, bytes.length, e);
+                return null;
+            }
+        }, sniffingExecutor);
+    }
+
+    /**
+     * Detects the content type from the given content, the file name is used as a hint.
+     */
+    public String detect(InputStream inputStream, String fileName) throws IOException {
+        try (TikaInputStream is = TikaInputStream.get(inputStream)) {
+            Metadata tikaMetadata = new Metadata();
+            tikaMetadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, fileName);
+            return detector.detect(is, tikaMetadata).toString();
+        }
+    }
+
+    private boolean isConclusive(String contentType) {
+        MediaType type = MediaType.parse(contentType);
+        if (type == null || MediaType.OCTET_STREAM.equals(type)) {
+            return false;
+        }
+        // Also covers the specializations guessed from the file name, e.g. a .docx name on a ZIP prefix
+        return CONTAINER_TYPES.stream().noneMatch(container -> mediaTypeRegistry.isInstanceOf(type, container));
+    }
+
+    private void detectAndUpdate(FileMetadata fileMetadata) {
+        try {
+            String contentType = fileMetrics.detection("full").observeChecked(
+                    () -> detect(fileStorageService.loadFile(fileKeyFrom(fileMetadata)), fileMetadata.getFileName()));
+            customMetadataRepository.updateContentType(fileMetadata.getId(), contentType, ContentTypeStatus.DETECTED);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to determine content type for file: {} for user: {}",
+                    fileMetadata.getInStorageId(), fileMetadata.getUserId(), e);
+            String contentType = fileMetadata.getContentType() != null
+                    ? fileMetadata.getContentType()
+                    : MediaType.OCTET_STREAM.toString();
+            customMetadataRepository.updateContentType(fileMetadata.getId(), contentType, ContentTypeStatus.FAILED);
+        } finally {
+            fileMetadataCache.invalidate(fileMetadata.getInStorageId());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        sniffingExecutor.shutdown();
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("Content type detection did not finish, {} files are left PENDING until the next start",
+                    executor.getQueue().size());
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package dym.filestorage.api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * In-process cache of ACTIVE file metadata by inStorageId, bounded by the estimated memory size of the entries.
+ * Entries expire after the TTL, which also bounds how long other instances may serve a deleted file.
+ * Cached instances are shared and must not be modified.
+ * Hit, miss and eviction counters are published as "cache.*" metrics with the name "fileMetadata".
+ */
+@Component
+public class FileMetadataCache {
+
+    // Rough object overhead of the metadata entity and its fields
+    private static final int BASE_ENTRY_SIZE = 256;
+
+    private final Cache<String, FileMetadata> cache;
+
+    public FileMetadataCache(@Value("${metadata.cache.max-size-bytes:67108864}") long maxSizeBytes,
+                             @Value("${metadata.cache.ttl:60s}") Duration ttl,
+                             MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSizeBytes)
+                .weigher((String key, FileMetadata metadata) -> estimateSize(metadata))
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "fileMetadata");
+    }
+
+    /**
+     * Returns the cached metadata, or loads and caches it. Missing files are not cached,
+     * so that they become visible as soon as their upload completes.
+     * The load is atomic: an invalidation waits for a running load of the same file, so a load that
+     * started before a deletion cannot cache the deleted file afterwards.
+     */
+    public Optional<FileMetadata> get(String inStorageId, Function<String, Optional<FileMetadata>> loader) {
+        return Optional.ofNullable(cache.get(inStorageId, id -> loader.apply(id).orElse(null)));
+    }
+
+    public void invalidate(String inStorageId) {
+        cache.invalidate(inStorageId);
+    }
+
+    private static int estimateSize(FileMetadata metadata) {
+        int size = BASE_ENTRY_SIZE
+                + length(metadata.getId())
+                + length(metadata.getFileName())
+                + length(metadata.getUserId())
+                + length(metadata.getContentType())
+                + length(metadata.getContentEncoding())
+                + length(metadata.getHash())
+                + length(metadata.getHashAlgorithm())
+                + length(metadata.getChecksum())
+                + length(metadata.getChecksumAlgorithm())
+                + length(metadata.getInStorageId());
+        Set<String> tags = metadata.getTags();
+        if (tags != null) {
+            for (String tag : tags) {
+                size += 32 + length(tag);
+            }
+        }
+        return size;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : 40 + value.length() * 2;
+    }
+}
@@ -0,0 +1,182 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.io.StreamDigest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics and traces of the file operations and the stages of an upload.
+ * Operations and stages are observations: each one is a timer with an "error" tag, and a span when tracing is enabled.
+ * <ul>
+ *     <li>file.operation: upload, get and delete, tagged with "operation"</li>
+ *     <li>file.upload.stage: pending-save, store, hash and activate, tagged with "stage"</li>
+ *     <li>file.detection: content type detection, tagged with "mode" sniff or full</li>
+ *     <li>file.upload.failures: failed uploads, tagged with "reason"</li>
+ *     <li>file.uploads.in.flight, file.upload.bytes, file.upload.size and file.upload.throughput (bytes per second)</li>
+ * </ul>
+ */
+@Component
+public class FileMetrics {
+
+    public static final String OPERATION = "file.operation";
+    public static final String UPLOAD_STAGE = "file.upload.stage";
+    public static final String DETECTION = "file.detection";
+
+    private final MeterRegistry meterRegistry;
+    private final ObservationRegistry observationRegistry;
+    private final AtomicInteger uploadsInFlight = new AtomicInteger();
+    private final Counter uploadedBytesCounter;
+    private final DistributionSummary uploadSize;
+    private final Timer hashTimer;
+    private final Throughput uploadThroughput = new Throughput();
+
+    public FileMetrics(MeterRegistry meterRegistry, ObservationRegistry observationRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.observationRegistry = observationRegistry;
+
+        Gauge.builder("file.uploads.in.flight", uploadsInFlight, AtomicInteger::get)
+                .description("Uploads currently being stored")
+                .register(meterRegistry);
+        this.uploadedBytesCounter = Counter.builder("file.upload.bytes")
+                .description("Bytes of uploaded content")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("file.upload.throughput", this, metrics -> metrics.uploadThroughput.rate(metrics.uploadedBytesCounter.count()))
+                .description("Bytes stored per second since the previous sample")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.uploadSize = DistributionSummary.builder("file.upload.size")
+                .description("Sizes of uploaded files")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        // Hashing happens while the content is streamed, so it is summed up over the upload instead of observed.
+        // The error tag keeps the tag keys the same as those of the observed stages
+        this.hashTimer = Timer.builder(UPLOAD_STAGE)
+                .tag("stage", "hash")
+                .tag("error", "none")
+                .register(meterRegistry);
+    }
+
+    public Observation operation(String operation) {
+        return Observation.createNotStarted(OPERATION, observationRegistry)
+                .lowCardinalityKeyValue("operation", operation);
+    }
+
+    public Observation uploadStage(String stage) {
+        return Observation.createNotStarted(UPLOAD_STAGE, observationRegistry)
+                .lowCardinalityKeyValue("stage", stage);
+    }
+
+    public Observation detection(String mode) {
+        return Observation.createNotStarted(DETECTION, observationRegistry)
+                .lowCardinalityKeyValue("mode", mode);
+    }
+
+    public void uploadStarted() {
+        uploadsInFlight.incrementAndGet();
+    }
+
+    public void uploadFinished() {
+        uploadsInFlight.decrementAndGet();
+    }
+
+    public void uploadStored(long size) {
+        uploadedBytesCounter.increment(size);
+        uploadSize.record(size);
+    }
+
+    public void uploadFailed(String reason) {
+        meterRegistry.counter("file.upload.failures", "reason", reason).increment();
+    }
+
+    /**
+     * Wraps the digest to measure the time spent in updates. With a pipelined digest, that is the time
+     * the upload waits for the hashing thread.
+     */
+    public TimedDigest timed(StreamDigest digest) {
+        return new TimedDigest(digest, hashTimer);
+    }
+
+    /**
+     * A digest adding up the time spent in its updates, recorded once when it is completed or closed.
+     */
+    public static class TimedDigest implements StreamDigest {
+
+        private final StreamDigest digest;
+        private final Timer timer;
+        private long nanos;
+        private boolean recorded;
+
+        TimedDigest(StreamDigest digest, Timer timer) {
+            this.digest = digest;
+            this.timer = timer;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return digest.getAlgorithm();
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            long start = System.nanoTime();
+            digest.update(b, off, len);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public byte[] digest() {
+            long start = System.nanoTime();
+            byte[] value = digest.digest();
+            nanos += System.nanoTime() - start;
+            record();
+            return value;
+        }
+
+        @Override
+        public void close() {
+            digest.close();
+            record();
+        }
+
+        private void record() {
+            if (!recorded) {
+                recorded = true;
+                timer.record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Rate of a growing total between two samples, taken at least a second apart so that frequent scrapes
+     * do not make the rate jump.
+     */
+    private static class Throughput {
+
+        private static final long MIN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private double lastTotal;
+        private long lastSample = System.nanoTime();
+        private double rate;
+
+        synchronized double rate(double total) {
+            long now = System.nanoTime();
+            long elapsed = now - lastSample;
+            if (elapsed >= MIN_INTERVAL_NANOS) {
+                rate = (total - lastTotal) * 1e9 / elapsed;
+                lastTotal = total;
+                lastSample = now;
+            }
+            return rate;
+        }
+    }
+}
@@ -1,39 +1,51 @@
 package dym.filestorage.api.service;
 
+import dym.filestorage.api.common.ContentTypeStatus;
 import dym.filestorage.api.common.FileStatus;
 import dym.filestorage.api.common.Visibility;
 import dym.filestorage.api.dto.ListRequest;
 import dym.filestorage.api.dto.UploadRequest;
 import dym.filestorage.api.exception.ApiException;
+import dym.filestorage.api.helper.CursorHelper;
+import dym.filestorage.api.helper.FileHelper;
+import dym.filestorage.api.io.GzipCompressingInputStream;
 import dym.filestorage.api.io.HashingStreamWrapper;
+import dym.filestorage.api.io.SniffingStreamWrapper;
+import dym.filestorage.api.io.StreamDigest;
 import dym.filestorage.api.persistance.entity.FileMetadata;
 import dym.filestorage.api.persistance.repository.CustomMetadataRepository;
 import dym.filestorage.api.persistance.repository.FileMetadataRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.tika.config.TikaConfig;
-import org.apache.tika.exception.TikaException;
-import org.apache.tika.io.TikaInputStream;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.metadata.TikaCoreProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
 import org.springframework.dao.DuplicateKeyException;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
 import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Service;
 import org.springframework.util.MimeType;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.time.Clock;
 import java.util.HexFormat;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static dym.filestorage.api.helper.FileHelper.fileKeyFrom;
+import static dym.filestorage.api.helper.FileHelper.normalizeTag;
 import static org.springframework.http.MediaType.APPLICATION_OCTET_STREAM;
+import static org.springframework.http.MediaType.APPLICATION_OCTET_STREAM_VALUE;
+import static org.springframework.util.StringUtils.hasText;
 
 @Slf4j
 @Service
@@ -43,121 +55,282 @@ public class FileService {
     private final FileMetadataRepository fileMetadataRepository;
     private final CustomMetadataRepository customMetadataRepository;
     private final FileStorageService fileStorageService;
+    private final ContentTypeDetectionService contentTypeDetectionService;
+    private final TagCatalogService tagCatalogService;
+    private final FileMetadataCache fileMetadataCache;
+    private final StreamDigestFactory streamDigestFactory;
+    private final CompressionPolicy compressionPolicy;
+    private final FileMetrics fileMetrics;
+
+    private @Value("${detection.sniff-size:8192}") int sniffSize;
 
     public FileMetadata uploadFile(InputStream inputStream,
                                    String contentType,
                                    UploadRequest uploadRequest) {
 
+        return fileMetrics.operation("upload").observe(() -> {
+            FileMetadata metadata = createPendingFile(contentType, uploadRequest);
+
+            // The underlying stream will be closed by the try-with-resources block in the controller upstream
+            return storeFile(metadata, inputStream);
+        });
+    }
+
+    /**
+     * Reserves the file name for the user by saving PENDING metadata, before any content is stored.
+     */
+    public FileMetadata createPendingFile(String contentType, UploadRequest uploadRequest) {
         FileMetadata metadata = metadataFrom(uploadRequest)
                 .setContentType(contentType)
                 .setStatus(FileStatus.PENDING);
 
-        String storagePath = fileKeyFrom(metadata);
+        try {
+            return fileMetrics.uploadStage("pending-save").observe(() -> fileMetadataRepository.insert(metadata));
+        } catch (DuplicateKeyException e) {
+            fileMetrics.uploadFailed("duplicate-name");
+            throw new ApiException("File already exists: " + metadata.getFileName());
+        }
+    }
+
+    /**
+     * Stores the content of a PENDING file and makes the file ACTIVE, or FAILED if storing fails.
+     */
+    public FileMetadata storeFile(FileMetadata metadata, InputStream inputStream) {
+        return storeFile(metadata, inputStream, FileStatus.FAILED);
+    }
 
+    /**
+     * Stores the content of a file in its current status, PENDING or COMPLETING, and makes the file ACTIVE.
+     * If storing fails, the file is moved to the failed status.
+     */
+    public FileMetadata storeFile(FileMetadata metadata, InputStream inputStream, FileStatus failedStatus) {
+        fileMetrics.uploadStarted();
         try {
-            fileMetadataRepository.save(metadata);
+            return store(metadata, inputStream, failedStatus);
+        } finally {
+            fileMetrics.uploadFinished();
+        }
+    }
 
-            // The underlying stream will be closed by the try-with-resources block in the controller upstream
-            HashingStreamWrapper hashingWrapper = new HashingStreamWrapper(inputStream);
-            fileStorageService.saveFile(hashingWrapper, storagePath);
+    private FileMetadata store(FileMetadata metadata, InputStream inputStream, FileStatus failedStatus) {
+        String storagePath = fileKeyFrom(metadata);
+        FileStatus status = metadata.getStatus();
+
+        boolean detectContentType = needsContentTypeDetection(metadata);
+        CompletableFuture<byte[]> prefix = new CompletableFuture<>();
+        CompletableFuture<String> sniffedContentType = detectContentType
+                ? contentTypeDetectionService.sniff(prefix, metadata.getFileName())
+                : CompletableFuture.completedFuture(null);
+
+        StreamDigest checksum = streamDigestFactory.newChecksum();
+        try (StreamDigest hash = fileMetrics.timed(streamDigestFactory.newHash())) {
+            HashingStreamWrapper hashingWrapper = new HashingStreamWrapper(inputStream, hash);
+            InputStream contentStream = checksum == null
+                    ? hashingWrapper
+                    : new HashingStreamWrapper(hashingWrapper, checksum);
+            SniffingStreamWrapper sniffingWrapper = new SniffingStreamWrapper(contentStream, sniffSize, prefix::complete);
+            InputStream storedStream = sniffingWrapper;
+
+            GzipCompressingInputStream compressingStream = null;
+            if (compressionPolicy.isEnabled()) {
+                String contentType = metadata.getContentType();
+                if (detectContentType) {
+                    // Whether to compress depends on the content type, so it's detected before anything is stored
+                    byte[] head = sniffingWrapper.readNBytes(sniffSize);
+                    contentType = sniffedContentType.join();
+                    storedStream = new SequenceInputStream(new ByteArrayInputStream(head), sniffingWrapper);
+                }
+                if (compressionPolicy.shouldCompress(contentType)) {
+                    compressingStream = compressionPolicy.compress(storedStream);
+                    storedStream = compressingStream;
+                }
+            }
+
+            InputStream contentToStore = storedStream;
+            String contentEncoding = compressingStream != null ? CompressionPolicy.GZIP : null;
+            Supplier<String> contentId = () -> contentId(HexFormat.of().formatHex(hashingWrapper.getHash()), contentEncoding);
+            fileMetrics.uploadStage("store").observeChecked(
+                    () -> fileStorageService.saveFile(contentToStore, storagePath, contentId));
 
             metadata.setHash(HexFormat.of().formatHex(hashingWrapper.getHash()));
+            metadata.setHashAlgorithm(hashingWrapper.getAlgorithm());
+            if (checksum != null) {
+                metadata.setChecksum(HexFormat.of().formatHex(checksum.digest()));
+                metadata.setChecksumAlgorithm(checksum.getAlgorithm());
+            }
             metadata.setSize(hashingWrapper.getBytesRead());
-        } catch (DuplicateKeyException e) {
-            throw new ApiException("File already exists: " + metadata.getFileName());
+            fileMetrics.uploadStored(metadata.getSize());
+            if (compressingStream != null) {
+                metadata.setContentEncoding(CompressionPolicy.GZIP);
+                metadata.setStoredSize(compressingStream.getCompressedSize());
+            }
         } catch (IOException e) {
-            fileMetadataRepository.save(metadata.setStatus(FileStatus.FAILED));
-            log.error("Failed to store file: {} for user: {}", metadata.getInStorageId(), metadata.getUserId(), e);
+            failUpload(metadata, status, failedStatus, "io-error", e);
             throw new ApiException("Failed to store the file.", e);
+        } catch (RuntimeException e) {
+            failUpload(metadata, status, failedStatus, "error", e);
+            throw e;
         }
 
+        String contentType = sniffedContentType.join();
+        if (contentType != null) {
+            metadata.setContentType(contentType).setContentTypeStatus(ContentTypeStatus.DETECTED);
+        } else if (detectContentType) {
+            // Only the whole content can tell, it's detected in the background.
+            // Until then a file uploaded without a content type is served as binary
+            if (metadata.getContentType() == null) {
+                metadata.setContentType(APPLICATION_OCTET_STREAM_VALUE);
+            }
+            metadata.setContentTypeStatus(ContentTypeStatus.PENDING);
+        } else {
+            metadata.setContentTypeStatus(ContentTypeStatus.DECLARED);
+        }
+
+        boolean activated;
         try {
             // Try to update the hash and hope it will be unique
-            fileMetadataRepository.save(metadata.setStatus(FileStatus.ACTIVE));
+            activated = fileMetrics.uploadStage("activate").observe(() -> customMetadataRepository.activate(metadata, status));
         } catch (DuplicateKeyException e) {
-            //It's still PENDING
-            fileMetadataRepository.save(metadata.setStatus(FileStatus.FAILED));
-            try {
-                fileStorageService.deleteFile(storagePath);
-            } catch (IOException ex) {
-                log.error("Failed to clean up failed upload: {} for user: {}", metadata.getInStorageId(), metadata.getUserId(), ex);
-            }
+            //It's still PENDING or COMPLETING
+            fileMetrics.uploadFailed("duplicate-content");
+            customMetadataRepository.transitionStatus(metadata.getId(), status, failedStatus);
+            metadata.setStatus(failedStatus);
+            cleanUpStoredFile(metadata);
 
             throw new ApiException("File with the same content already exists for user " + metadata.getUserId());
+        } catch (RuntimeException e) {
+            failUpload(metadata, status, failedStatus, "error", e);
+            throw e;
         }
+        if (!activated) {
+            // The upload was aborted in the meantime
+            fileMetrics.uploadFailed("cancelled");
+            cleanUpStoredFile(metadata);
+            throw new ApiException("Upload was cancelled: " + metadata.getInStorageId());
+        }
+        metadata.setStatus(FileStatus.ACTIVE);
+
+        tagCatalogService.onActivated(metadata);
 
-        //In a better world this could be done asynchronously after returning the response
-        updateContentType(metadata);
+        if (metadata.getContentTypeStatus() == ContentTypeStatus.PENDING) {
+            contentTypeDetectionService.submit(metadata);
+        }
 
         return metadata;
     }
 
-    private void updateContentType(FileMetadata fileMetadata) {
-        if (fileMetadata.getContentType() == null
-                || APPLICATION_OCTET_STREAM.isCompatibleWith(MimeType.valueOf(fileMetadata.getContentType()))) {
-
-            try (TikaInputStream is = TikaInputStream.get(fileStorageService.loadFile(fileKeyFrom(fileMetadata)))) {
-                Metadata tikaMetadata = new Metadata();
-                tikaMetadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, fileMetadata.getFileName());
-                TikaConfig tika = new TikaConfig();
-                org.apache.tika.mime.MediaType mediaType = tika.getDetector().detect(is, tikaMetadata);
-
-                if (!mediaType.getType().equalsIgnoreCase(fileMetadata.getContentType())) {
-                    fileMetadata.setContentType(mediaType.toString());
-                    fileMetadataRepository.save(fileMetadata);
-                }
+    /**
+     * Moves the file to the failed status and deletes the content stored so far, so that neither the metadata
+     * stays unfinished nor the content is orphaned. If the file left its status in the meantime,
+     * the content is left to whatever moved it, e.g. an abort deletes it itself.
+     */
+    private void failUpload(FileMetadata metadata, FileStatus status, FileStatus failedStatus, String reason, Exception e) {
+        fileMetrics.uploadFailed(reason);
+        log.error("Failed to store file: {} for user: {}", metadata.getInStorageId(), metadata.getUserId(), e);
+        if (customMetadataRepository.transitionStatus(metadata.getId(), status, failedStatus).isPresent()) {
+            metadata.setStatus(failedStatus);
+            cleanUpStoredFile(metadata);
+        }
+    }
 
-            } catch (TikaException | IOException e) {
-                log.error("Failed to determine content type for file: {} for user: {}",
-                        fileMetadata.getInStorageId(), fileMetadata.getUserId(), e);
-            }
+    private void cleanUpStoredFile(FileMetadata metadata) {
+        try {
+            fileStorageService.deleteFile(fileKeyFrom(metadata));
+        } catch (IOException ex) {
+            log.error("Failed to clean up failed upload: {} for user: {}", metadata.getInStorageId(), metadata.getUserId(), ex);
         }
     }
 
+    private boolean needsContentTypeDetection(FileMetadata fileMetadata) {
+        return fileMetadata.getContentType() == null
+                || APPLICATION_OCTET_STREAM.isCompatibleWith(MimeType.valueOf(fileMetadata.getContentType()));
+    }
+
     private FileMetadata metadataFrom(UploadRequest uploadRequest) {
         return new FileMetadata()
                 .setFileName(uploadRequest.fileName())
                 .setUserId(uploadRequest.userId())
                 .setVisibility(uploadRequest.getVisibility())
-                .setTags(uploadRequest.tags())
+                .setTags(normalizeTags(uploadRequest.tags()))
                 .setUploadDate(Clock.systemUTC().millis())
                 .setInStorageId(UUID.randomUUID().toString());
     }
 
-    public List<FileMetadata> listUserFiles(ListRequest listRequest) {
-        Pageable pageable = PageRequest.of(listRequest.getPage(), listRequest.getSize(), listRequest.getSortBy());
+    private static Set<String> normalizeTags(Set<String> tags) {
+        if (tags == null) {
+            return null;
+        }
+        return tags.stream()
+                .map(FileHelper::normalizeTag)
+                .collect(Collectors.toSet());
+    }
+
+    public Window<FileMetadata> listUserFiles(ListRequest listRequest) {
         return customMetadataRepository.findByUser(
                 listRequest.getUserId(),
                 listRequest.getVisibility(),
-                listRequest.getTag(),
-                pageable);
+                normalizeTag(listRequest.getTag()),
+                listRequest.getSortBy(),
+                listRequest.getSize(),
+                scrollPositionFrom(listRequest));
     }
 
-    public List<FileMetadata> listPublicFiles(ListRequest listRequest) {
-        Pageable pageable = PageRequest.of(listRequest.getPage(), listRequest.getSize(), listRequest.getSortBy());
-        return customMetadataRepository.findPublic(listRequest.getTag(), pageable);
+    public Window<FileMetadata> listPublicFiles(ListRequest listRequest) {
+        return customMetadataRepository.findPublic(
+                normalizeTag(listRequest.getTag()),
+                listRequest.getSortBy(),
+                listRequest.getSize(),
+                scrollPositionFrom(listRequest));
+    }
+
+    /**
+     * Continues from the cursor if there is one. Without a cursor, the first page starts a keyset scroll,
+     * other page numbers fall back to skipping documents.
+     */
+    private ScrollPosition scrollPositionFrom(ListRequest listRequest) {
+        if (hasText(listRequest.getCursor())) {
+            return CursorHelper.decode(listRequest.getCursor(), listRequest.getSortBy());
+        }
+        if (listRequest.getPage() == 0) {
+            return ScrollPosition.keyset();
+        }
+        // The offset position points to the last element of the previous page
+        return ScrollPosition.offset((long) listRequest.getPage() * listRequest.getSize() - 1);
     }
 
     public List<String> getAccessibleTags(String userId) {
-        return fileMetadataRepository.findAccessibleTags(userId);
+        return tagCatalogService.getAccessibleTags(userId);
     }
 
-    public Pair<FileMetadata, InputStream> getFile(String inStorageId, String userId) throws IOException {
-        FileMetadata metadata = getFileMetadata(inStorageId, userId);
+    public Pair<FileMetadata, Resource> getFile(String inStorageId, String userId) throws IOException {
+        return fileMetrics.operation("get").observeChecked(() -> {
+            FileMetadata metadata = getFileMetadata(inStorageId, userId);
+
+            String contentId = contentId(metadata.getHash(), metadata.getContentEncoding());
+            return Pair.of(metadata, fileStorageService.loadResource(fileKeyFrom(metadata), contentId));
+        });
+    }
 
-        return Pair.of(metadata, fileStorageService.loadFile(fileKeyFrom(metadata)));
+    // The hash identifies the content, the stored bytes also depend on the encoding
+    private static String contentId(String hash, String contentEncoding) {
+        return contentEncoding == null ? hash : hash + "." + contentEncoding;
     }
 
     public void deleteFile(String inStorageId, String userId) throws IOException {
-        FileMetadata metadata = getFileMetadata(inStorageId, userId);
+        fileMetrics.operation("delete").observeChecked(() -> {
+            FileMetadata metadata = getFileMetadata(inStorageId, userId);
 
-        fileStorageService.deleteFile(fileKeyFrom(metadata));
+            fileStorageService.deleteFile(fileKeyFrom(metadata));
 
-        fileMetadataRepository.save(metadata.setStatus(FileStatus.DELETED));
+            customMetadataRepository.transitionStatus(metadata.getId(), FileStatus.ACTIVE, FileStatus.DELETED)
+                    .ifPresent(tagCatalogService::onDeleted);
+            fileMetadataCache.invalidate(inStorageId);
+        });
     }
 
     private FileMetadata getFileMetadata(String inStorageId, String userId) throws FileNotFoundException {
-        Optional<FileMetadata> metadataOptional = fileMetadataRepository.findActiveByStorageId(inStorageId);
+        Optional<FileMetadata> metadataOptional =
+                fileMetadataCache.get(inStorageId, fileMetadataRepository::findActiveByStorageId);
 
         FileMetadata metadata = metadataOptional.orElseThrow(
                 () -> new FileNotFoundException("File not found: " + inStorageId)
@@ -1,13 +1,41 @@
 package dym.filestorage.api.service;
 
+import org.springframework.core.io.Resource;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.function.Supplier;
 
 public interface FileStorageService {
 
     void saveFile(InputStream inputStream, String fileKey) throws IOException;
 
+    /**
+     * Same as {@link #saveFile(InputStream, String)}, with the identifier of the stored bytes, as passed to
+     * {@link #loadResource(String, String)}, computed by the caller while the stream is read.
+     * The identifier is available once the stream has been read to its end.
+     * Implementations addressing content by its hash may use it instead of hashing the content again.
+     */
+    default void saveFile(InputStream inputStream, String fileKey, Supplier<String> contentId) throws IOException {
+        saveFile(inputStream, fileKey);
+    }
+
     InputStream loadFile(String fileKey) throws IOException;
 
+    /**
+     * Returns the stored content as a {@link Resource}. Implementations backed by the local file system
+     * should return a file-based resource, so that the content can be sent without copying it through the heap.
+     */
+    Resource loadResource(String fileKey) throws IOException;
+
+    /**
+     * Same as {@link #loadResource(String)}, for content with a known identifier: the hash of the content,
+     * qualified with its encoding if it's stored compressed.
+     * Stored content never changes, so implementations may use the identifier to share cached copies.
+     */
+    default Resource loadResource(String fileKey, String contentId) throws IOException {
+        return loadResource(fileKey);
+    }
+
     void deleteFile(String fileKey) throws IOException;
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.persistance.repository.CustomMetadataRepository;
+import org.springframework.stereotype.Component;
+
+/**
+ * Refuses to start with a hash algorithm other than the one the stored files were hashed with.
+ * Hashes of different algorithms never match, so duplicates of the stored files would go undetected
+ * and the uniqueness index on the hash would no longer reject them.
+ */
+@Component
+public class HashAlgorithmGuard {
+
+    public HashAlgorithmGuard(CustomMetadataRepository customMetadataRepository,
+                              StreamDigestFactory streamDigestFactory) {
+        String configured = streamDigestFactory.getHashAlgorithm();
+        String stored = customMetadataRepository.recordHashAlgorithm(configured);
+        if (!stored.equalsIgnoreCase(configured)) {
+            throw new IllegalStateException(String.format(
+                    "The stored files are hashed with %s, hashing.algorithm cannot be changed to %s", stored, configured));
+        }
+    }
+}
@@ -1,61 +1,213 @@
 package dym.filestorage.api.service;
 
+import dym.filestorage.api.helper.FileHelper;
+import dym.filestorage.api.io.FileSyncer;
+import dym.filestorage.api.io.MappedFileRegistry;
+import dym.filestorage.api.io.MappedFileResource;
+import dym.filestorage.api.io.PipelinedFileWriter;
+import lombok.Getter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 
+/**
+ * Stores every file under its key in the local file system. Files are written to a temporary file first,
+ * synced according to the configured durability mode, and hard-linked into place,
+ * so a stored file is either complete or absent after a crash. Unlike a rename, the link fails
+ * instead of replacing a file stored under the same key by a concurrent upload.
+ * <p>
+ * With storage.shard-levels, files are stored in hash-prefix directories under the user directory
+ * (see {@link FileHelper#shardedKeyFrom}), which keeps directories small for users with many files.
+ * Files stored in the flat layout are still found there. While {@link StorageLayoutMigration} is enabled
+ * (storage.migration.enabled), it moves them, and reading a file moves it as well.
+ * <p>
+ * Files within the size band of the {@link MappedFileRegistry} are served from shared memory mappings.
+ */
 @Service
+@ConditionalOnProperty(name = "storage.type", havingValue = "local", matchIfMissing = true)
 public class LocalStorageService implements FileStorageService {
 
-    private static final int BUFFER_SIZE = 65536;
-
     private final Path fileStorageLocation;
+    private final Path tempLocation;
+    private final PipelinedFileWriter fileWriter;
+    private final FileSyncer fileSyncer;
+    private final MappedFileRegistry mappedFileRegistry;
+    @Getter
+    private final int shardLevels;
+    private final boolean migrationEnabled;
 
-    public LocalStorageService(@Value("${storage.local}") String uploadDir) throws IOException {
+    public LocalStorageService(@Value("${storage.local}") String uploadDir,
+                               @Value("${storage.shard-levels:2}") int shardLevels,
+                               @Value("${storage.migration.enabled:false}") boolean migrationEnabled,
+                               PipelinedFileWriter fileWriter,
+                               FileSyncer fileSyncer,
+                               MappedFileRegistry mappedFileRegistry) throws IOException {
         this.fileStorageLocation = Paths.get(uploadDir).toAbsolutePath().normalize();
-        Files.createDirectories(this.fileStorageLocation);
+        this.tempLocation = fileStorageLocation.resolve(".tmp");
+        this.shardLevels = shardLevels;
+        this.migrationEnabled = migrationEnabled;
+        this.fileWriter = fileWriter;
+        this.fileSyncer = fileSyncer;
+        this.mappedFileRegistry = mappedFileRegistry;
+        // Fails fast on invalid levels
+        FileHelper.shardedKeyFrom("", shardLevels);
+        Files.createDirectories(this.tempLocation);
     }
 
     @Override
     public void saveFile(InputStream inputStream, String fileKey) throws IOException {
-        var path = fileStorageLocation.resolve(fileKey);
-        Files.createDirectories(path.getParent());
-
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int bytesRead;
+        var path = pathOf(fileKey);
+        // The link below only fails for a file in the sharded layout
+        if (findExisting(fileKey) != null) {
+            throw new FileAlreadyExistsException(path.toString());
+        }
+        var directory = path.getParent();
+        fileSyncer.createDirectories(directory);
 
-        try (var outputStream = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW)) {
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
+        Path tempFile = createTempFile();
+        boolean linked = false;
+        try {
+            fileWriter.write(inputStream, tempFile, StandardOpenOption.TRUNCATE_EXISTING);
+            fileSyncer.sync(tempFile);
+            Files.createLink(path, tempFile);
+            linked = true;
+            fileSyncer.sync(directory);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
         } catch (IOException e) {
-            Files.deleteIfExists(path);
+            if (linked) {
+                Files.deleteIfExists(path);
+            }
             throw new IOException("Could not store file with ID " + fileKey, e);
+        } finally {
+            Files.deleteIfExists(tempFile);
         }
     }
 
     @Override
     public InputStream loadFile(String fileKey) throws IOException {
-        var path = fileStorageLocation.resolve(fileKey);
-        if (!Files.exists(path)) {
-            throw new FileNotFoundException("File not found " + path);
+        return Files.newInputStream(getReadable(fileKey));
+    }
+
+    @Override
+    public Resource loadResource(String fileKey) throws IOException {
+        var path = getReadable(fileKey);
+        if (mappedFileRegistry.accepts(Files.size(path))) {
+            return new MappedFileResource(path, mappedFileRegistry);
         }
-        return Files.newInputStream(path);
+        return new FileSystemResource(path);
     }
 
     @Override
     public void deleteFile(String fileKey) throws IOException {
-        var path = fileStorageLocation.resolve(fileKey);
-        if (!Files.exists(path)) {
-            return;
+        // A file being migrated may move between the lookup and the deletion
+        for (int attempt = 0; attempt < 2; attempt++) {
+            var path = findExisting(fileKey);
+            if (path == null) {
+                return;
+            }
+            if (Files.deleteIfExists(path)) {
+                mappedFileRegistry.drop(path);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves a file stored in the flat layout to its sharded location.
+     *
+     * @return true if the file was moved
+     */
+    boolean migrate(String fileKey) throws IOException {
+        var legacyPath = fileStorageLocation.resolve(fileKey);
+        var path = pathOf(fileKey);
+        if (legacyPath.equals(path) || !Files.isRegularFile(legacyPath)) {
+            return false;
+        }
+
+        var directory = path.getParent();
+        fileSyncer.createDirectories(directory);
+        try {
+            Files.move(legacyPath, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // Deleted in the meantime
+            return false;
+        }
+        mappedFileRegistry.drop(legacyPath);
+        fileSyncer.sync(directory);
+        fileSyncer.sync(legacyPath.getParent());
+        return true;
+    }
+
+    private Path createTempFile() throws IOException {
+        try {
+            return Files.createTempFile(tempLocation, "upload", ".tmp");
+        } catch (NoSuchFileException e) {
+            // Removed while the service is running
+            Files.createDirectories(tempLocation);
+            return Files.createTempFile(tempLocation, "upload", ".tmp");
+        }
+    }
+
+    Path getLocation() {
+        return fileStorageLocation;
+    }
+
+    private Path pathOf(String fileKey) {
+        return fileStorageLocation.resolve(FileHelper.shardedKeyFrom(fileKey, shardLevels));
+    }
+
+    private Path getExisting(String fileKey) throws FileNotFoundException {
+        var path = findExisting(fileKey);
+        if (path == null) {
+            throw new FileNotFoundException("File not found " + pathOf(fileKey));
+        }
+        return path;
+    }
+
+    /**
+     * Looks up a file to be opened. A running migration could move a file of the flat layout between the lookup
+     * and the opening, so such a file is moved to the sharded layout first. Without the migration, files stay
+     * where they are.
+     */
+    private Path getReadable(String fileKey) throws IOException {
+        var path = getExisting(fileKey);
+        if (migrationEnabled && !path.equals(pathOf(fileKey))) {
+            migrate(fileKey);
+            path = getExisting(fileKey);
+        }
+        return path;
+    }
+
+    /**
+     * Looks up the file in the sharded layout, then in the flat one. Migration moves files atomically,
+     * so checking the sharded location again finds a file that was moved while being looked up.
+     */
+    private Path findExisting(String fileKey) {
+        var path = pathOf(fileKey);
+        if (Files.exists(path)) {
+            return path;
+        }
+        var legacyPath = fileStorageLocation.resolve(fileKey);
+        if (legacyPath.equals(path)) {
+            return null;
+        }
+        if (Files.exists(legacyPath)) {
+            return legacyPath;
         }
-        Files.delete(path);
+        return Files.exists(path) ? path : null;
     }
-}
\ No newline at end of file
+}
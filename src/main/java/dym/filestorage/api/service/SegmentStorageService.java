@@ -0,0 +1,390 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.io.FileRegionResource;
+import dym.filestorage.api.io.FileSyncer;
+import dym.filestorage.api.io.MappedFileRegistry;
+import dym.filestorage.api.io.PipelinedFileWriter;
+import dym.filestorage.api.io.SegmentFile;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Packs small files into large append-only segment files, saving an inode, a directory entry
+ * and an open/close per file. Files larger than storage.segment.max-entry-size are stored as individual files.
+ * <p>
+ * The location of every blob is kept in an in-memory index, rebuilt on startup. A full segment is sealed,
+ * and the compaction thread writes its records to a hint file, so only the active segment and sealed segments
+ * without a valid hint are scanned on startup.
+ * Deletions append tombstones, and a background compaction copies the live blobs of segments
+ * with too much garbage into the active segment, then removes them.
+ * Blobs are read with positional reads from the open segment channels. A removed segment's channel is closed
+ * once the streams reading from it are closed.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "storage.type", havingValue = "segment")
+public class SegmentStorageService implements FileStorageService {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{8})\\.seg");
+    // Resources handed out before a segment was removed may still open streams within this time,
+    // open streams keep the channel open as long as they need
+    private static final Duration RETIRED_SEGMENT_GRACE = Duration.ofSeconds(30);
+
+    private record Location(int segmentId, long offset, long dataOffset, int length, int recordSize) {
+
+        static Location of(int segmentId, SegmentFile.Entry entry) {
+            return new Location(segmentId, entry.offset(), entry.dataOffset(), entry.value(), entry.size());
+        }
+    }
+
+    private final Path segmentLocation;
+    private final LocalStorageService largeFiles;
+    private final FileSyncer fileSyncer;
+    private final int maxEntrySize;
+    private final long maxSegmentSize;
+    private final double compactionRatio;
+
+    private final Map<Integer, SegmentFile> segments = new ConcurrentHashMap<>();
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final Lock appendLock = new ReentrantLock();
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("segment-compaction").daemon().factory());
+
+    private volatile SegmentFile active;
+
+    public SegmentStorageService(@Value("${storage.local}") String uploadDir,
+                                 @Value("${storage.shard-levels:2}") int shardLevels,
+                                 @Value("${storage.segment.max-entry-size:65536}") int maxEntrySize,
+                                 @Value("${storage.segment.max-size:1073741824}") long maxSegmentSize,
+                                 @Value("${storage.segment.compaction-ratio:0.5}") double compactionRatio,
+                                 @Value("${storage.segment.compaction-interval:5m}") Duration compactionInterval,
+                                 PipelinedFileWriter fileWriter,
+                                 FileSyncer fileSyncer,
+                                 MappedFileRegistry mappedFileRegistry) throws IOException {
+        Path fileStorageLocation = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.segmentLocation = fileStorageLocation.resolve("segments");
+        // The layout migration only covers the local storage type
+        this.largeFiles = new LocalStorageService(fileStorageLocation.resolve("large").toString(),
+                shardLevels, false, fileWriter, fileSyncer, mappedFileRegistry);
+        this.fileSyncer = fileSyncer;
+        this.maxEntrySize = maxEntrySize;
+        this.maxSegmentSize = maxSegmentSize;
+        this.compactionRatio = compactionRatio;
+        Files.createDirectories(segmentLocation);
+
+        loadSegments();
+        compactor.scheduleWithFixedDelay(this::compact,
+                compactionInterval.toMillis(), compactionInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void saveFile(InputStream inputStream, String fileKey) throws IOException {
+        if (index.containsKey(fileKey)) {
+            throw new FileAlreadyExistsException(fileKey);
+        }
+
+        byte[] data = inputStream.readNBytes(maxEntrySize + 1);
+        if (data.length > maxEntrySize) {
+            largeFiles.saveFile(new SequenceInputStream(new ByteArrayInputStream(data), inputStream), fileKey);
+            return;
+        }
+
+        SegmentFile segment;
+        appendLock.lock();
+        try {
+            segment = activeSegment(SegmentFile.HEADER_SIZE + fileKey.length() * 3 + data.length);
+            SegmentFile.Entry entry = segment.append(SegmentFile.BLOB, fileKey, data.length, ByteBuffer.wrap(data));
+            // Indexed right away, so that a compaction never misses it; the file is not ACTIVE before this returns
+            index.put(fileKey, Location.of(segment.getId(), entry));
+        } finally {
+            appendLock.unlock();
+        }
+        // Concurrent appends to the segment share the sync with group commit
+        fileSyncer.sync(segment.getPath());
+    }
+
+    @Override
+    public InputStream loadFile(String fileKey) throws IOException {
+        return loadResource(fileKey).getInputStream();
+    }
+
+    @Override
+    public Resource loadResource(String fileKey) throws IOException {
+        Location location = index.get(fileKey);
+        if (location == null) {
+            return largeFiles.loadResource(fileKey);
+        }
+
+        SegmentFile segment = segments.get(location.segmentId());
+        if (segment == null) {
+            // Compacted in the meantime
+            return loadResource(fileKey);
+        }
+        return new FileRegionResource(segment, location.dataOffset(), location.length(), fileKey);
+    }
+
+    @Override
+    public void deleteFile(String fileKey) throws IOException {
+        SegmentFile segment = null;
+        appendLock.lock();
+        try {
+            // Compaction moves blobs under the same lock, so the location is current
+            Location location = index.get(fileKey);
+            if (location != null) {
+                segment = appendTombstone(fileKey, location);
+                index.remove(fileKey);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (segment == null) {
+            largeFiles.deleteFile(fileKey);
+        } else {
+            fileSyncer.sync(segment.getPath());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        compactor.shutdownNow();
+        for (SegmentFile segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(segmentLocation)) {
+            paths = files.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted(Comparator.comparing(Path::getFileName))
+                    .toList();
+        }
+
+        int hinted = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+            matcher.matches();
+            SegmentFile segment = SegmentFile.open(Integer.parseInt(matcher.group(1)), path);
+            segments.put(segment.getId(), segment);
+
+            // The last segment is still appended to, and has no hint
+            Optional<SegmentFile.Hint> hint = i < paths.size() - 1
+                    ? segment.readHint(hintPath(segment))
+                    : Optional.empty();
+            long validSize;
+            if (hint.isPresent()) {
+                hint.get().entries().forEach(entry -> indexEntry(segment, entry));
+                validSize = hint.get().validSize();
+                hinted++;
+            } else {
+                // An invalid hint is written again once the segment is loaded
+                Files.deleteIfExists(hintPath(segment));
+                validSize = segment.scan((entry, data) -> indexEntry(segment, entry));
+            }
+            if (validSize < segment.size()) {
+                log.warn("Segment {} has {} invalid bytes after offset {}", path, segment.size() - validSize, validSize);
+                if (i == paths.size() - 1) {
+                    // An append interrupted by a crash, it was never acknowledged
+                    segment.truncate(validSize);
+                } else {
+                    segment.addGarbage(segment.size() - validSize);
+                }
+            }
+            active = segment;
+        }
+
+        if (active == null) {
+            active = createSegment(1);
+        }
+        log.info("Loaded {} segments ({} from hints) with {} blobs", segments.size(), hinted, index.size());
+        if (hinted < segments.size() - 1) {
+            compactor.execute(this::writeHints);
+        }
+    }
+
+    /**
+     * Writes the missing hint files of sealed segments.
+     */
+    synchronized void writeHints() {
+        for (SegmentFile segment : segments.values()) {
+            Path hintPath = hintPath(segment);
+            if (segment == active || Files.exists(hintPath)) {
+                continue;
+            }
+            try {
+                // A hint must not describe records that could still be lost
+                fileSyncer.sync(segment.getPath());
+                Path tempFile = Files.createTempFile(segmentLocation, hintPath.getFileName().toString(), ".tmp");
+                try {
+                    segment.writeHint(tempFile);
+                    fileSyncer.sync(tempFile);
+                    Files.move(tempFile, hintPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+                fileSyncer.sync(segmentLocation);
+            } catch (IOException e) {
+                log.warn("Failed to write hint of segment {}, it is scanned on the next start", segment.getPath(), e);
+            }
+        }
+    }
+
+    private Path hintPath(SegmentFile segment) {
+        return segmentLocation.resolve(String.format("segment-%08d.hint", segment.getId()));
+    }
+
+    private void indexEntry(SegmentFile segment, SegmentFile.Entry entry) {
+        if (entry.type() == SegmentFile.BLOB) {
+            Location previous = index.put(entry.key(), Location.of(segment.getId(), entry));
+            if (previous != null) {
+                // Copied by a compaction that did not finish removing the old segment
+                addGarbage(previous);
+            }
+            return;
+        }
+
+        segment.addGarbage(entry.size());
+        Location deleted = index.get(entry.key());
+        if (deleted != null && deleted.segmentId() == entry.value()) {
+            index.remove(entry.key());
+            addGarbage(deleted);
+        }
+    }
+
+    // Called under the append lock
+    private SegmentFile activeSegment(long recordSize) throws IOException {
+        SegmentFile segment = active;
+        if (segment.size() > 0 && segment.size() + recordSize > maxSegmentSize) {
+            segment = createSegment(segment.getId() + 1);
+            active = segment;
+            // The previous segment is sealed
+            compactor.execute(this::writeHints);
+        }
+        return segment;
+    }
+
+    private SegmentFile createSegment(int id) throws IOException {
+        SegmentFile segment = SegmentFile.open(id, segmentLocation.resolve(String.format("segment-%08d.seg", id)));
+        fileSyncer.sync(segmentLocation);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    // Called under the append lock
+    private SegmentFile appendTombstone(String fileKey, Location location) throws IOException {
+        SegmentFile segment = activeSegment(SegmentFile.HEADER_SIZE + fileKey.length() * 3L);
+        SegmentFile.Entry tombstone = segment.append(SegmentFile.TOMBSTONE, fileKey, location.segmentId(),
+                ByteBuffer.allocate(0));
+        segment.addGarbage(tombstone.size());
+        addGarbage(location);
+        return segment;
+    }
+
+    private void addGarbage(Location location) {
+        SegmentFile segment = segments.get(location.segmentId());
+        if (segment != null) {
+            segment.addGarbage(location.recordSize());
+        }
+    }
+
+    void compact() {
+        List<SegmentFile> candidates = new ArrayList<>();
+        for (SegmentFile segment : segments.values()) {
+            if (segment != active && segment.garbage() >= segment.size() * compactionRatio) {
+                candidates.add(segment);
+            }
+        }
+        for (SegmentFile segment : candidates) {
+            try {
+                compact(segment);
+            } catch (IOException e) {
+                log.error("Failed to compact segment {}", segment.getPath(), e);
+            } catch (RuntimeException e) {
+                log.error("Unexpected error while compacting segment {}", segment.getPath(), e);
+            }
+        }
+    }
+
+    private void compact(SegmentFile segment) throws IOException {
+        log.info("Compacting segment {}, {} of {} bytes are garbage", segment.getPath(), segment.garbage(), segment.size());
+        long[] moved = new long[1];
+        Set<SegmentFile> targets = new HashSet<>();
+
+        segment.scan((entry, data) -> {
+            appendLock.lock();
+            try {
+                if (entry.type() == SegmentFile.BLOB) {
+                    Location location = index.get(entry.key());
+                    if (location != null && location.segmentId() == segment.getId() && location.offset() == entry.offset()) {
+                        SegmentFile target = activeSegment(entry.size());
+                        SegmentFile.Entry copy = target.append(SegmentFile.BLOB, entry.key(), entry.value(), data);
+                        index.put(entry.key(), Location.of(target.getId(), copy));
+                        targets.add(target);
+                        moved[0]++;
+                    }
+                } else if (entry.value() != segment.getId() && segments.containsKey(entry.value())) {
+                    // The deleted blob is still in another segment, so the tombstone must outlive this one
+                    SegmentFile target = activeSegment(entry.size());
+                    target.addGarbage(target.append(SegmentFile.TOMBSTONE, entry.key(), entry.value(), data).size());
+                    targets.add(target);
+                }
+            } finally {
+                appendLock.unlock();
+            }
+        });
+
+        // The copies must be durable before the originals go away
+        for (SegmentFile target : targets) {
+            fileSyncer.sync(target.getPath());
+        }
+        segments.remove(segment.getId());
+        // The hint goes first, so that a crash in between never leaves a hint without its segment
+        Files.deleteIfExists(hintPath(segment));
+        Files.delete(segment.getPath());
+        fileSyncer.sync(segmentLocation);
+        compactor.schedule(() -> closeRetired(segment), RETIRED_SEGMENT_GRACE.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Compacted segment {}, {} blobs moved", segment.getPath(), moved[0]);
+    }
+
+    private void closeRetired(SegmentFile segment) {
+        try {
+            segment.retire();
+        } catch (IOException e) {
+            log.warn("Failed to close segment {}", segment.getPath(), e);
+        }
+    }
+}
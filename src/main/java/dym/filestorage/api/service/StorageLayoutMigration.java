@@ -0,0 +1,95 @@
+package dym.filestorage.api.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves files from the flat userId/inStorageId layout into the sharded layout of {@link LocalStorageService},
+ * in the background while the service keeps running. Every file is moved atomically, and the storage service
+ * looks files up in both layouts, so uploads, downloads and deletions are not interrupted.
+ * The migration is idempotent: it can be stopped at any time and resumes on the next start.
+ * Other storage types have no flat layout, the migration is skipped for them.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "storage.migration.enabled", havingValue = "true")
+@ConditionalOnProperty(name = "storage.type", havingValue = "local", matchIfMissing = true)
+public class StorageLayoutMigration implements ApplicationRunner {
+
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    private final LocalStorageService localStorageService;
+    private final long pauseNanos;
+
+    private volatile Thread worker;
+
+    public StorageLayoutMigration(LocalStorageService localStorageService,
+                                  @Value("${storage.migration.max-files-per-second:1000}") int maxFilesPerSecond) {
+        this.localStorageService = localStorageService;
+        this.pauseNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, maxFilesPerSecond);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (localStorageService.getShardLevels() == 0) {
+            log.info("Storage layout is flat, nothing to migrate");
+            return;
+        }
+        worker = Thread.ofVirtual().name("storage-layout-migration").start(this::migrate);
+    }
+
+    public boolean isRunning() {
+        Thread thread = worker;
+        return thread != null && thread.isAlive();
+    }
+
+    private void migrate() {
+        log.info("Migrating stored files to {} shard levels", localStorageService.getShardLevels());
+        long total = 0;
+        try {
+            long moved;
+            // Directory listings may skip entries while files are moved out of them, so repeat until nothing is left
+            do {
+                moved = migratePass(total);
+                total += moved;
+            } while (moved > 0);
+            log.info("Storage layout migration finished, {} files moved", total);
+        } catch (InterruptedException e) {
+            log.info("Storage layout migration stopped after {} files", total);
+        } catch (IOException e) {
+            log.error("Storage layout migration failed after {} files, it will resume on the next start", total, e);
+        }
+    }
+
+    private long migratePass(long movedBefore) throws IOException, InterruptedException {
+        long moved = 0;
+        try (DirectoryStream<Path> users = Files.newDirectoryStream(localStorageService.getLocation(),
+                path -> Files.isDirectory(path) && !path.getFileName().toString().startsWith("."))) {
+            for (Path userDirectory : users) {
+                String userId = userDirectory.getFileName().toString();
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(userDirectory, Files::isRegularFile)) {
+                    for (Path file : files) {
+                        if (localStorageService.migrate(userId + "/" + file.getFileName())) {
+                            moved++;
+                            if ((movedBefore + moved) % PROGRESS_INTERVAL == 0) {
+                                log.info("Storage layout migration: {} files moved", movedBefore + moved);
+                            }
+                            TimeUnit.NANOSECONDS.sleep(pauseNanos);
+                        }
+                    }
+                }
+            }
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,74 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.io.PipelinedDigest;
+import dym.filestorage.api.io.StreamDigest;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Creates the digests computed for uploaded content:
+ * the hash, which identifies the content (duplicate detection, ETags, caching),
+ * and an optional fast checksum, which is recorded for integrity checks.
+ * The algorithms are validated at startup, so a misconfiguration does not surface as failed uploads.
+ * The hash must be a {@link java.security.MessageDigest} of at least 224 bits: checksums and broken hashes
+ * such as MD5 or SHA-1 are rejected.
+ */
+@Slf4j
+@Component
+public class StreamDigestFactory {
+
+    private static final String NONE = "none";
+    // The hash keys duplicates, ETags and cached content across users, so collisions must be infeasible
+    private static final int MIN_HASH_LENGTH = 28;
+
+    @Getter
+    private final String hashAlgorithm;
+    @Getter
+    private final String checksumAlgorithm;
+    private final boolean pipelined;
+    private final int pipelineDepth;
+
+    public StreamDigestFactory(@Value("${hashing.algorithm:SHA-256}") String hashAlgorithm,
+                               @Value("${hashing.checksum:CRC32C}") String checksumAlgorithm,
+                               @Value("${hashing.pipelined:false}") boolean pipelined,
+                               @Value("${hashing.pipeline-depth:4}") int pipelineDepth) {
+        // Normalized names are recorded in the metadata
+        this.hashAlgorithm = cryptographicHash(hashAlgorithm).getAlgorithm();
+        this.checksumAlgorithm = NONE.equals(checksumAlgorithm.toLowerCase(Locale.ROOT))
+                ? null
+                : StreamDigest.of(checksumAlgorithm).getAlgorithm();
+        this.pipelined = pipelined;
+        this.pipelineDepth = pipelineDepth;
+        log.info("Hashing uploads with {}{}, checksum: {}",
+                this.hashAlgorithm, pipelined ? " (pipelined)" : "", this.checksumAlgorithm);
+    }
+
+    private static StreamDigest cryptographicHash(String algorithm) {
+        StreamDigest digest = StreamDigest.of(algorithm);
+        if (!(digest instanceof StreamDigest.MessageDigestAdapter hash) || hash.getDigestLength() < MIN_HASH_LENGTH) {
+            throw new IllegalArgumentException("The hash algorithm must be a cryptographic hash of at least "
+                    + MIN_HASH_LENGTH * 8 + " bits, e.g. SHA-256: " + algorithm);
+        }
+        return digest;
+    }
+
+    /**
+     * Returns a new hash digest, computed on a separate thread if pipelining is enabled.
+     */
+    public StreamDigest newHash() {
+        StreamDigest digest = StreamDigest.of(hashAlgorithm);
+        return pipelined ? new PipelinedDigest(digest, pipelineDepth) : digest;
+    }
+
+    /**
+     * Returns a new checksum digest, or null if checksums are disabled.
+     * Checksums are cheap enough to be computed on the calling thread.
+     */
+    public StreamDigest newChecksum() {
+        return checksumAlgorithm == null ? null : StreamDigest.of(checksumAlgorithm);
+    }
+}
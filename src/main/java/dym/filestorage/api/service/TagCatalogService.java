@@ -0,0 +1,83 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.common.Visibility;
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import dym.filestorage.api.persistance.entity.TagCount;
+import dym.filestorage.api.persistance.repository.TagCatalogRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps per-user and public tag counts up to date as files become ACTIVE or get deleted,
+ * so that the accessible tags are read from the catalog instead of being aggregated over all files.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TagCatalogService implements ApplicationRunner {
+
+    // Longer than any rebuild is expected to take
+    private static final Duration REBUILD_LEASE = Duration.ofMinutes(30);
+
+    private final TagCatalogRepository tagCatalogRepository;
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private @Value("${metadata.rebuild-tag-catalog:false}") boolean rebuildOnStartup;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        // Files uploaded before the catalog existed are only counted by a rebuild
+        if (!rebuildOnStartup && !tagCatalogRepository.isEmpty()) {
+            return;
+        }
+        // Instances starting together rebuild the catalog once
+        if (!tagCatalogRepository.tryLockRebuild(instanceId, REBUILD_LEASE)) {
+            log.info("The tag catalog is being rebuilt by another instance");
+            return;
+        }
+        try {
+            if (rebuildOnStartup || tagCatalogRepository.isEmpty()) {
+                log.info("Rebuilding the tag catalog");
+                tagCatalogRepository.rebuild();
+            }
+        } finally {
+            tagCatalogRepository.unlockRebuild(instanceId);
+        }
+    }
+
+    public void onActivated(FileMetadata metadata) {
+        tagCatalogRepository.updateCounts(scopesOf(metadata), tagsOf(metadata), 1);
+    }
+
+    public void onDeleted(FileMetadata metadata) {
+        tagCatalogRepository.updateCounts(scopesOf(metadata), tagsOf(metadata), -1);
+    }
+
+    public List<String> getAccessibleTags(String userId) {
+        return tagCatalogRepository.findTags(List.of(TagCount.userScope(userId), TagCount.PUBLIC_SCOPE));
+    }
+
+    private List<String> scopesOf(FileMetadata metadata) {
+        List<String> scopes = new ArrayList<>();
+        scopes.add(TagCount.userScope(metadata.getUserId()));
+        if (metadata.getVisibility() == Visibility.PUBLIC) {
+            scopes.add(TagCount.PUBLIC_SCOPE);
+        }
+        return scopes;
+    }
+
+    private Set<String> tagsOf(FileMetadata metadata) {
+        // Tags are normalized on upload, so they are counted as stored, like the rebuild does
+        return metadata.getTags() == null ? Set.of() : metadata.getTags();
+    }
+}
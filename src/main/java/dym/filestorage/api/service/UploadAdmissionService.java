@@ -0,0 +1,201 @@
+package dym.filestorage.api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import dym.filestorage.api.exception.UploadRejectedException;
+import dym.filestorage.api.io.ThrottledInputStream;
+import dym.filestorage.api.io.TokenBucket;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether an upload may start, so that a burst of uploads cannot exhaust buffers and disk bandwidth.
+ * <ul>
+ *     <li>A user has at most per-user max-concurrent uploads running or queued, further uploads are rejected.</li>
+ *     <li>At most max-concurrent uploads run at the same time. Up to max-queued uploads wait for up to queue-timeout,
+ *     further uploads are rejected at once.</li>
+ *     <li>The upload streams of a user share a token bucket of per-user bytes-per-second, so the limit covers
+ *     the bytes actually read, whatever the number of requests.</li>
+ * </ul>
+ * Rejections are counted as "upload.admission.rejections" with a "reason",
+ * running and queued uploads are published as "upload.admission.active" and "upload.admission.queued".
+ */
+@Slf4j
+@Service
+public class UploadAdmissionService {
+
+    private final int maxQueued;
+    private final Duration queueTimeout;
+    private final int maxConcurrentPerUser;
+    private final long bytesPerSecondPerUser;
+    private final long burstPerUser;
+    private final Duration retryAfter;
+    private final MeterRegistry meterRegistry;
+
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Cache<String, UserUploads> users;
+
+    public UploadAdmissionService(@Value("${uploads.admission.max-concurrent:64}") int maxConcurrent,
+                                  @Value("${uploads.admission.max-queued:256}") int maxQueued,
+                                  @Value("${uploads.admission.queue-timeout:5s}") Duration queueTimeout,
+                                  @Value("${uploads.admission.per-user.max-concurrent:8}") int maxConcurrentPerUser,
+                                  @Value("${uploads.admission.per-user.bytes-per-second:0}") long bytesPerSecondPerUser,
+                                  @Value("${uploads.admission.per-user.burst:4194304}") long burstPerUser,
+                                  @Value("${uploads.admission.retry-after:5s}") Duration retryAfter,
+                                  MeterRegistry meterRegistry) {
+        this.maxQueued = maxQueued;
+        this.queueTimeout = queueTimeout;
+        this.maxConcurrentPerUser = maxConcurrentPerUser;
+        this.bytesPerSecondPerUser = bytesPerSecondPerUser;
+        this.burstPerUser = burstPerUser;
+        this.retryAfter = retryAfter;
+        this.meterRegistry = meterRegistry;
+        this.permits = new Semaphore(maxConcurrent, true);
+        // Users without running uploads are forgotten once their bucket would be full again
+        long idleNanos = bytesPerSecondPerUser > 0
+                ? TimeUnit.SECONDS.toNanos(1) * burstPerUser / bytesPerSecondPerUser
+                : 0;
+        this.users = Caffeine.newBuilder()
+                .expireAfter(new IdleUserExpiry(idleNanos))
+                .build();
+
+        Gauge.builder("upload.admission.active", permits, semaphore -> maxConcurrent - semaphore.availablePermits())
+                .description("Admitted uploads")
+                .register(meterRegistry);
+        Gauge.builder("upload.admission.queued", queued, AtomicInteger::get)
+                .description("Uploads waiting for admission")
+                .register(meterRegistry);
+        log.info("Admitting {} concurrent uploads, {} per user, {} bytes per second per user",
+                maxConcurrent, maxConcurrentPerUser, bytesPerSecondPerUser > 0 ? bytesPerSecondPerUser : "unlimited");
+    }
+
+    /**
+     * Admits an upload of the user, waiting in the queue if all permits are taken.
+     * The admission must be closed when the upload is finished.
+     *
+     * @throws UploadRejectedException if the user has too many uploads, the queue is full or the wait timed out
+     */
+    public Admission admit(String userId) {
+        UserUploads user = users.asMap().compute(userId, (key, existing) -> {
+            UserUploads uploads = existing != null ? existing : new UserUploads(newBucket());
+            if (uploads.active >= maxConcurrentPerUser) {
+                throw reject("user-limit", "Too many concurrent uploads for user " + userId);
+            }
+            uploads.active++;
+            return uploads;
+        });
+
+        try {
+            acquirePermit();
+        } catch (UploadRejectedException e) {
+            release(userId);
+            throw e;
+        }
+        return new Admission(userId, user);
+    }
+
+    private void acquirePermit() {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            throw reject("queue-full", "Too many concurrent uploads");
+        }
+        try {
+            if (!permits.tryAcquire(queueTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw reject("queue-timeout", "Too many concurrent uploads");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject("interrupted", "Interrupted while waiting for admission");
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    private void release(String userId) {
+        // Updating the entry makes it expire once the user is idle
+        users.asMap().computeIfPresent(userId, (key, uploads) -> {
+            uploads.active--;
+            return uploads;
+        });
+    }
+
+    private TokenBucket newBucket() {
+        return bytesPerSecondPerUser > 0 ? new TokenBucket(bytesPerSecondPerUser, burstPerUser) : null;
+    }
+
+    private UploadRejectedException reject(String reason, String message) {
+        meterRegistry.counter("upload.admission.rejections", "reason", reason).increment();
+        return new UploadRejectedException(message, retryAfter);
+    }
+
+    /**
+     * A running upload. Its streams are throttled by the bucket of the user.
+     */
+    public class Admission implements AutoCloseable {
+
+        private final String userId;
+        private final UserUploads user;
+        private boolean closed;
+
+        private Admission(String userId, UserUploads user) {
+            this.userId = userId;
+            this.user = user;
+        }
+
+        public InputStream throttle(InputStream inputStream) {
+            return user.bucket == null ? inputStream : new ThrottledInputStream(inputStream, user.bucket);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                permits.release();
+                release(userId);
+            }
+        }
+    }
+
+    // The count is only changed within the computations of the cache, which are atomic per user
+    private static class UserUploads {
+
+        private final TokenBucket bucket;
+        private int active;
+
+        UserUploads(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    private record IdleUserExpiry(long idleNanos) implements Expiry<String, UserUploads> {
+
+        @Override
+        public long expireAfterCreate(String userId, UserUploads uploads, long currentTime) {
+            return uploads.active > 0 ? Long.MAX_VALUE : idleNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String userId, UserUploads uploads, long currentTime, long currentDuration) {
+            return expireAfterCreate(userId, uploads, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String userId, UserUploads uploads, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
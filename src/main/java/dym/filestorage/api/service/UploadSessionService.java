@@ -0,0 +1,308 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.common.FileStatus;
+import dym.filestorage.api.dto.UploadRequest;
+import dym.filestorage.api.exception.ApiException;
+import dym.filestorage.api.io.PipelinedFileWriter;
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import dym.filestorage.api.persistance.repository.CustomMetadataRepository;
+import dym.filestorage.api.persistance.repository.FileMetadataRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static dym.filestorage.api.helper.FileHelper.fileKeyFrom;
+import static java.lang.String.format;
+
+/**
+ * Multipart uploads: a session is a PENDING file, its parts are staged on the local disk independently of each other
+ * and are streamed into the storage in the order of their numbers when the session is completed.
+ * A session is COMPLETING while its parts are stored, and goes back to PENDING with its parts if that fails.
+ * Parts are moved into place, and sessions are claimed by a completion or an abort, under a per-session lock,
+ * so an uploaded part is either stored with the file or rejected.
+ * Sessions not completed within the TTL are aborted by a periodic sweep.
+ */
+@Slf4j
+@Service
+public class UploadSessionService {
+
+    private static final int MAX_PARTS = 10000;
+    private static final String PART_SUFFIX = ".part";
+    private static final int SWEEP_BATCH = 100;
+    private static final int LOCK_STRIPES = 64;
+
+    private final FileService fileService;
+    private final FileMetadataRepository fileMetadataRepository;
+    private final CustomMetadataRepository customMetadataRepository;
+    private final FileStorageService fileStorageService;
+    private final PipelinedFileWriter fileWriter;
+    private final Path partsLocation;
+    private final Duration ttl;
+    private final ReadWriteLock[] locks = new ReadWriteLock[LOCK_STRIPES];
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("upload-session-sweeper").daemon().factory());
+
+    public UploadSessionService(FileService fileService,
+                                FileMetadataRepository fileMetadataRepository,
+                                CustomMetadataRepository customMetadataRepository,
+                                FileStorageService fileStorageService,
+                                PipelinedFileWriter fileWriter,
+                                @Value("${storage.parts}") String partsDir,
+                                @Value("${uploads.sessions.ttl:24h}") Duration ttl,
+                                @Value("${uploads.sessions.sweep-interval:1h}") Duration sweepInterval) throws IOException {
+        this.fileService = fileService;
+        this.fileMetadataRepository = fileMetadataRepository;
+        this.customMetadataRepository = customMetadataRepository;
+        this.fileStorageService = fileStorageService;
+        this.fileWriter = fileWriter;
+        this.partsLocation = Paths.get(partsDir).toAbsolutePath().normalize();
+        this.ttl = ttl;
+        Files.createDirectories(this.partsLocation);
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        sweeper.scheduleWithFixedDelay(this::sweep,
+                sweepInterval.toMillis(), sweepInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    public FileMetadata initiate(String contentType, UploadRequest uploadRequest) {
+        return fileService.createPendingFile(contentType, uploadRequest);
+    }
+
+    /**
+     * Stores one part of the upload. Parts can be uploaded concurrently and in any order,
+     * re-uploading a part replaces it.
+     *
+     * @return the size of the stored part
+     */
+    public long uploadPart(String uploadId, String userId, int partNumber, InputStream inputStream) throws IOException {
+        if (partNumber < 1 || partNumber > MAX_PARTS) {
+            throw new ApiException(format("Part number must be between 1 and %d", MAX_PARTS));
+        }
+
+        FileMetadata metadata = getSession(uploadId, userId);
+        Path sessionDir = partsLocation.resolve(metadata.getInStorageId());
+        Files.createDirectories(sessionDir);
+
+        // Parts become visible under their final name only when completely written
+        Path tempFile = Files.createTempFile(sessionDir, String.valueOf(partNumber), ".tmp");
+        try {
+            long size = fileWriter.write(inputStream, tempFile, StandardOpenOption.TRUNCATE_EXISTING);
+            // A completion may have claimed the session while the part was written.
+            // Parts of the same session are moved in concurrently, a claim waits for them
+            Lock lock = lockFor(uploadId).readLock();
+            lock.lock();
+            try {
+                if (fileMetadataRepository.findPendingByStorageId(uploadId).isEmpty()) {
+                    Files.delete(tempFile);
+                    throw new ApiException("Upload is being completed or was aborted: " + uploadId);
+                }
+                Files.move(tempFile, sessionDir.resolve(partNumber + PART_SUFFIX),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                lock.unlock();
+            }
+            return size;
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw new IOException("Could not store part " + partNumber + " of upload " + uploadId, e);
+        }
+    }
+
+    /**
+     * Stores the parts as the content of the file. The session is claimed first, so that a concurrent completion
+     * or abort fails instead of reading or deleting the same parts. If storing fails, the session and its parts
+     * are kept, so that the completion can be retried.
+     */
+    public FileMetadata complete(String uploadId, String userId) throws IOException {
+        FileMetadata session = getSession(uploadId, userId);
+        FileMetadata metadata = claim(session, FileStatus.PENDING, FileStatus.COMPLETING)
+                .orElseThrow(() -> new ApiException("Upload is already being completed: " + uploadId));
+        Path sessionDir = partsLocation.resolve(metadata.getInStorageId());
+
+        FileMetadata stored;
+        try {
+            List<Path> parts = listParts(sessionDir);
+            if (parts.isEmpty()) {
+                throw new ApiException("No parts uploaded for upload " + uploadId);
+            }
+            for (int i = 0; i < parts.size(); i++) {
+                if (partNumber(parts.get(i)) != i + 1) {
+                    throw new ApiException("Missing part " + (i + 1) + " of upload " + uploadId);
+                }
+            }
+
+            try (InputStream inputStream = new SequenceInputStream(openSequentially(parts))) {
+                stored = fileService.storeFile(metadata, inputStream, FileStatus.PENDING);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Releases the claim, unless storing the file already did
+            customMetadataRepository.transitionStatus(metadata.getId(), FileStatus.COMPLETING, FileStatus.PENDING);
+            throw e;
+        }
+
+        deleteParts(sessionDir);
+        return stored;
+    }
+
+    public void abort(String uploadId, String userId) throws IOException {
+        FileMetadata metadata = getSession(uploadId, userId);
+
+        if (claim(metadata, FileStatus.PENDING, FileStatus.DELETED).isEmpty()) {
+            throw new ApiException("Upload is being completed: " + uploadId);
+        }
+        deleteParts(partsLocation.resolve(metadata.getInStorageId()));
+    }
+
+    /**
+     * Aborts the uploads started more than the TTL ago that are still PENDING or COMPLETING: abandoned sessions,
+     * and uploads interrupted by a crash. Their file names are released, and their parts and any content
+     * stored before the interruption are deleted.
+     *
+     * @return the number of aborted uploads
+     */
+    public int abortExpired() {
+        long cutoff = Clock.systemUTC().millis() - ttl.toMillis();
+        int aborted = 0;
+        List<FileMetadata> expired;
+        do {
+            expired = customMetadataRepository.findUnfinishedBefore(cutoff, SWEEP_BATCH);
+            for (FileMetadata metadata : expired) {
+                if (claim(metadata, metadata.getStatus(), FileStatus.DELETED).isPresent()) {
+                    deleteParts(partsLocation.resolve(metadata.getInStorageId()));
+                    deleteContent(metadata);
+                    aborted++;
+                }
+            }
+        } while (expired.size() == SWEEP_BATCH);
+        return aborted;
+    }
+
+    private void sweep() {
+        try {
+            int aborted = abortExpired();
+            if (aborted > 0) {
+                log.info("Aborted {} uploads older than {}", aborted, ttl);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to abort expired uploads", e);
+        }
+    }
+
+    /**
+     * Moves the session out of its status while no part is being moved into place.
+     */
+    private Optional<FileMetadata> claim(FileMetadata metadata, FileStatus from, FileStatus to) {
+        Lock lock = lockFor(metadata.getInStorageId()).writeLock();
+        lock.lock();
+        try {
+            return customMetadataRepository.transitionStatus(metadata.getId(), from, to);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReadWriteLock lockFor(String uploadId) {
+        return locks[Math.floorMod(uploadId.hashCode(), LOCK_STRIPES)];
+    }
+
+    private FileMetadata getSession(String uploadId, String userId) throws FileNotFoundException {
+        FileMetadata metadata = fileMetadataRepository.findPendingByStorageId(uploadId)
+                .orElseThrow(() -> new FileNotFoundException("Upload not found: " + uploadId));
+
+        if (!metadata.getUserId().equals(userId)) {
+            throw new SecurityException("Access denied: " + uploadId);
+        }
+        return metadata;
+    }
+
+    private List<Path> listParts(Path sessionDir) throws IOException {
+        if (!Files.exists(sessionDir)) {
+            return List.of();
+        }
+        try (var files = Files.list(sessionDir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(PART_SUFFIX))
+                    .sorted(Comparator.comparingInt(UploadSessionService::partNumber))
+                    .toList();
+        }
+    }
+
+    private static int partNumber(Path part) {
+        String name = part.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - PART_SUFFIX.length()));
+    }
+
+    /**
+     * Opens the parts one at a time, so that a large number of parts does not hold as many open files.
+     */
+    private Enumeration<InputStream> openSequentially(List<Path> parts) {
+        Iterator<Path> iterator = parts.iterator();
+        return new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return Files.newInputStream(iterator.next());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private void deleteContent(FileMetadata metadata) {
+        try {
+            fileStorageService.deleteFile(fileKeyFrom(metadata));
+        } catch (IOException e) {
+            log.error("Failed to clean up content of upload: {}", metadata.getInStorageId(), e);
+        }
+    }
+
+    private void deleteParts(Path sessionDir) {
+        if (!Files.exists(sessionDir)) {
+            return;
+        }
+        try (var files = Files.walk(sessionDir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            log.error("Failed to clean up parts of upload: {}", sessionDir.getFileName(), e);
+        }
+    }
+}
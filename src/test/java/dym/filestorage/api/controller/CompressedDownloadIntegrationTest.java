@@ -0,0 +1,211 @@
+package dym.filestorage.api.controller;
+
+import com.jayway.jsonpath.JsonPath;
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import dym.filestorage.api.persistance.repository.FileMetadataRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.testcontainers.containers.MongoDBContainer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Downloads of files stored gzip-compressed, see storage.compression.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class CompressedDownloadIntegrationTest {
+
+    private static final String TEST_UPLOADS = "./target/test-uploads";
+    private static final String CONTENT = "A line of text that compresses well.\n".repeat(500);
+
+    static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:8");
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", mongoDBContainer::getReplicaSetUrl);
+        registry.add("storage.local", () -> TEST_UPLOADS);
+        registry.add("downloads.base-url", () -> "");
+        registry.add("storage.compression.enabled", () -> "true");
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private FileMetadataRepository fileMetadataRepository;
+
+    private String fileId;
+    private FileMetadata metadata;
+
+    @BeforeAll
+    public static void beforeAll() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        mongoDBContainer.stop();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        var upload = mockMvc.perform(post("/files")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content(CONTENT)
+                        .param("userId", "owner")
+                        .param("fileName", "text.txt"))
+                .andExpect(status().isCreated())
+                .andReturn();
+        fileId = JsonPath.read(upload.getResponse().getContentAsString(), "$.url");
+        metadata = fileMetadataRepository.findAll().getFirst();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        fileMetadataRepository.deleteAll();
+        try (var files = Files.walk(Path.of(TEST_UPLOADS))) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    void uploadFileStream_shouldStoreTextCompressed() throws IOException {
+        assertThat(metadata.getContentEncoding()).isEqualTo("gzip");
+        assertThat(metadata.getSize()).isEqualTo(CONTENT.length());
+        assertThat(metadata.getStoredSize()).isLessThan(metadata.getSize());
+
+        List<Path> stored;
+        try (var files = Files.walk(Path.of(TEST_UPLOADS))) {
+            stored = files.filter(Files::isRegularFile).toList();
+        }
+        assertThat(stored).hasSize(1);
+        assertThat(Files.size(stored.getFirst())).isEqualTo(metadata.getStoredSize());
+        assertThat(gunzip(Files.readAllBytes(stored.getFirst()))).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void downloadFile_shouldSendStoredContent_whenClientAcceptsGzip() throws Exception {
+        byte[] body = mockMvc.perform(get("/files/" + fileId)
+                        .param("userId", "owner")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.5"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + metadata.getHash() + "-gzip\""))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, metadata.getStoredSize()))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertThat(gunzip(body)).isEqualTo(CONTENT);
+
+        for (String acceptEncoding : List.of("*", "*;q=0, gzip;q=0.1", "x-gzip")) {
+            mockMvc.perform(get("/files/" + fileId)
+                            .param("userId", "owner")
+                            .header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"));
+        }
+    }
+
+    @Test
+    void downloadFile_shouldDecompress_whenClientRefusesGzip() throws Exception {
+        // An explicit gzip entry overrides "*", before or after it
+        for (String acceptEncoding : List.of("gzip;q=0, identity", "*;q=0.0", "br", "*;q=1, gzip;q=0", "gzip;q=0, *")) {
+            mockMvc.perform(get("/files/" + fileId)
+                            .param("userId", "owner")
+                            .header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                    .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                    .andExpect(header().string(HttpHeaders.ETAG, "\"" + metadata.getHash() + "\""))
+                    .andExpect(content().string(CONTENT));
+        }
+
+        mockMvc.perform(get("/files/" + fileId).param("userId", "owner"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(content().string(CONTENT));
+    }
+
+    @Test
+    void downloadFile_shouldNotMatchETag_ofOtherEncoding() throws Exception {
+        mockMvc.perform(get("/files/" + fileId)
+                        .param("userId", "owner")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"" + metadata.getHash() + "-gzip\""))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/files/" + fileId)
+                        .param("userId", "owner")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"" + metadata.getHash() + "-gzip\""))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void downloadFile_shouldApplyRange_toDecompressedContent() throws Exception {
+        mockMvc.perform(get("/files/" + fileId)
+                        .param("userId", "owner")
+                        .header(HttpHeaders.RANGE, "bytes=40-79"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 40-79/" + CONTENT.length()))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(content().string(CONTENT.substring(40, 80)));
+    }
+
+    @Test
+    void downloadArchive_shouldContainDecompressedContent() throws Exception {
+        var archive = mockMvc.perform(post("/files/archive")
+                        .param("userId", "owner")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\": [\"" + fileId + "\"]}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        byte[] zip = mockMvc.perform(asyncDispatch(archive))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry = zipInputStream.getNextEntry();
+            assertThat(entry).isNotNull();
+            assertThat(entry.getName()).isEqualTo("text.txt");
+            assertThat(new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(CONTENT);
+            assertThat(zipInputStream.getNextEntry()).isNull();
+        }
+    }
+
+    private static String gunzip(byte[] compressed) throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
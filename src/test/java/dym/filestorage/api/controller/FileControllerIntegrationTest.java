@@ -1,8 +1,14 @@
 package dym.filestorage.api.controller;
 
 import com.jayway.jsonpath.JsonPath;
+import dym.filestorage.api.common.ContentTypeStatus;
+import dym.filestorage.api.common.FileStatus;
 import dym.filestorage.api.persistance.entity.FileMetadata;
+import dym.filestorage.api.persistance.entity.TagCount;
 import dym.filestorage.api.persistance.repository.FileMetadataRepository;
+import dym.filestorage.api.persistance.repository.TagCatalogRepository;
+import dym.filestorage.api.service.FileStorageService;
+import dym.filestorage.api.service.UploadSessionService;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -10,22 +16,47 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 import org.testcontainers.containers.MongoDBContainer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import static dym.filestorage.api.common.Visibility.PRIVATE;
+import static dym.filestorage.api.helper.FileHelper.fileKeyFrom;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.nullValue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @SpringBootTest
@@ -33,6 +64,10 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 class FileControllerIntegrationTest {
 
     private static final String TEST_UPLOADS = "./target/test-uploads";
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
 
     static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:8");
 
@@ -49,6 +84,18 @@ class FileControllerIntegrationTest {
     @Autowired
     private FileMetadataRepository fileMetadataRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private UploadSessionService uploadSessionService;
+
+    @Autowired
+    private TagCatalogRepository tagCatalogRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
     @BeforeAll
     public static void beforeAll() {
         mongoDBContainer.start();
@@ -62,6 +109,7 @@ class FileControllerIntegrationTest {
     @AfterEach
     void tearDown() throws IOException {
         fileMetadataRepository.deleteAll();
+        mongoTemplate.remove(new Query(), TagCount.class);
         deletePath(Path.of(TEST_UPLOADS));
     }
 
@@ -102,11 +150,38 @@ class FileControllerIntegrationTest {
         FileMetadata metadata = storedMetadata.getFirst();
         assertThat(metadata.getFileName()).isEqualTo("testFile.txt");
         assertThat(metadata.getContentType()).isEqualTo(MediaType.TEXT_PLAIN_VALUE);
+        assertThat(metadata.getContentTypeStatus()).isEqualTo(ContentTypeStatus.DETECTED);
         assertThat(metadata.getSize()).isEqualTo(12);
         assertThat(metadata.getTags()).containsExactlyInAnyOrder("tag1", "tag2");
         assertThat(metadata.getVisibility()).isEqualTo(PRIVATE);    //default visibility
     }
 
+    @Test
+    void downloadFile_shouldServeBinary_whenUploadedWithoutContentType_andSniffIsInconclusive() throws Exception {
+        // A ZIP prefix is a container, only the whole content tells e.g. a JAR or an Office document
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(zip)) {
+            zipOutputStream.putNextEntry(new ZipEntry("entry.txt"));
+            zipOutputStream.write("entry content".getBytes());
+        }
+
+        var response = mockMvc.perform(post("/files")
+                        .content(zip.toByteArray())
+                        .param("userId", "tester")
+                        .param("fileName", "unknown"))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        FileMetadata metadata = fileMetadataRepository.findAll().getFirst();
+        assertThat(metadata.getContentType()).isNotNull();
+
+        String fileId = JsonPath.read(response.getResponse().getContentAsString(), "$.url");
+        mockMvc.perform(get("/files/{id}", fileId).param("userId", "tester"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.CONTENT_TYPE))
+                .andExpect(content().bytes(zip.toByteArray()));
+    }
+
     @Test
     void uploadFileStream_shouldReturnBadRequest_whenInvalidRequest() throws Exception {
         mockMvc.perform(post("/files")
@@ -180,4 +255,555 @@ class FileControllerIntegrationTest {
                 .andExpect(status().isOk())
                 .andExpect(content().string("test content"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void downloadFile_shouldReturn404_whenFileDeleted() throws Exception {
+        var response = mockMvc.perform(post("/files")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content("deleted content")
+                        .param("userId", "owner")
+                        .param("fileName", "deleted.txt"))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        var fileId = JsonPath.read(response.getResponse().getContentAsString(), "$.url");
+
+        // Caches the metadata before the deletion
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(delete("/files/{id}", fileId)
+                        .param("userId", "owner"))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner"))
+                .andExpect(status().isNotFound());
+
+        mockMvc.perform(delete("/files/{id}", fileId)
+                        .param("userId", "owner"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void downloadFile_shouldReturnPartialContent_whenRangeRequested() throws Exception {
+        var response = mockMvc.perform(post("/files")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content("0123456789")
+                        .param("userId", "owner")
+                        .param("fileName", "range.txt"))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        var fileId = JsonPath.read(response.getResponse().getContentAsString(), "$.url");
+
+        var eTag = mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner")
+                        .header(HttpHeaders.RANGE, "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+                .andExpect(content().string("2345"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner")
+                        .header(HttpHeaders.RANGE, "bytes=2-5")
+                        .header(HttpHeaders.IF_RANGE, "\"outdated\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string("0123456789"));
+
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner")
+                        .header(HttpHeaders.RANGE, "bytes=20-30"))
+                .andExpect(status().isRequestedRangeNotSatisfiable());
+
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner")
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void downloadFile_shouldHandOverToSendfile_whenContainerSupportsIt() throws Exception {
+        // Above downloads.sendfile-min-size
+        byte[] content = new byte[65536];
+        new Random(42).nextBytes(content);
+        var response = mockMvc.perform(post("/files")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(content)
+                        .param("userId", "owner")
+                        .param("fileName", "large.bin"))
+                .andExpect(status().isCreated())
+                .andReturn();
+        var fileId = JsonPath.read(response.getResponse().getContentAsString(), "$.url");
+
+        Path uploads = Path.of(TEST_UPLOADS).toAbsolutePath().normalize();
+        String storedFile;
+        try (var files = Files.walk(uploads)) {
+            storedFile = files.filter(Files::isRegularFile).findFirst().orElseThrow().toString();
+        }
+
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner")
+                        .requestAttr(SENDFILE_SUPPORT, true))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, content.length))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(request().attribute(SENDFILE_FILENAME, storedFile))
+                .andExpect(request().attribute(SENDFILE_START, 0L))
+                .andExpect(request().attribute(SENDFILE_END, (long) content.length))
+                .andExpect(content().bytes(new byte[0]));
+
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner")
+                        .requestAttr(SENDFILE_SUPPORT, true)
+                        .header(HttpHeaders.RANGE, "bytes=100-199"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 100-199/" + content.length))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 100))
+                .andExpect(request().attribute(SENDFILE_FILENAME, storedFile))
+                .andExpect(request().attribute(SENDFILE_START, 100L))
+                .andExpect(request().attribute(SENDFILE_END, 200L))
+                .andExpect(content().bytes(new byte[0]));
+
+        // Multiple ranges are written by Spring MVC
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner")
+                        .requestAttr(SENDFILE_SUPPORT, true)
+                        .header(HttpHeaders.RANGE, "bytes=0-9,100-109"))
+                .andExpect(status().isPartialContent())
+                .andExpect(request().attribute(SENDFILE_FILENAME, nullValue()));
+
+        // Without sendfile support, the content is written by the application
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner"))
+                .andExpect(status().isOk())
+                .andExpect(request().attribute(SENDFILE_FILENAME, nullValue()))
+                .andExpect(content().bytes(content));
+    }
+
+    @Test
+    void downloadFile_shouldNotUseSendfile_forSmallFiles() throws Exception {
+        var response = mockMvc.perform(post("/files")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content("small content")
+                        .param("userId", "owner")
+                        .param("fileName", "small.txt"))
+                .andExpect(status().isCreated())
+                .andReturn();
+        var fileId = JsonPath.read(response.getResponse().getContentAsString(), "$.url");
+
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner")
+                        .requestAttr(SENDFILE_SUPPORT, true))
+                .andExpect(status().isOk())
+                .andExpect(request().attribute(SENDFILE_FILENAME, nullValue()))
+                .andExpect(content().string("small content"));
+    }
+
+    @Test
+    void multipartUpload_shouldAssemblePartsInOrder_whenCompleted() throws Exception {
+        var session = mockMvc.perform(post("/files/uploads")
+                        .param("userId", "owner")
+                        .param("fileName", "parts.txt"))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        String uploadId = JsonPath.read(session.getResponse().getContentAsString(), "$.uploadId");
+
+        mockMvc.perform(put("/files/uploads/{id}/parts/{part}", uploadId, 2)
+                        .param("userId", "owner")
+                        .content("second"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size").value(6));
+
+        mockMvc.perform(post("/files/uploads/{id}/complete", uploadId)
+                        .param("userId", "owner"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(put("/files/uploads/{id}/parts/{part}", uploadId, 1)
+                        .param("userId", "owner")
+                        .content("first-"))
+                .andExpect(status().isOk());
+
+        var response = mockMvc.perform(post("/files/uploads/{id}/complete", uploadId)
+                        .param("userId", "owner"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.size").value(12))
+                .andReturn();
+
+        var fileId = JsonPath.read(response.getResponse().getContentAsString(), "$.url");
+
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("first-second"));
+    }
+
+    @Test
+    void multipartUpload_shouldKeepParts_whenCompletionFails() throws Exception {
+        mockMvc.perform(post("/files")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content("first-second")
+                        .param("userId", "owner")
+                        .param("fileName", "existing.txt"))
+                .andExpect(status().isCreated());
+
+        var session = mockMvc.perform(post("/files/uploads")
+                        .param("userId", "owner")
+                        .param("fileName", "parts.txt"))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        String uploadId = JsonPath.read(session.getResponse().getContentAsString(), "$.uploadId");
+
+        mockMvc.perform(put("/files/uploads/{id}/parts/{part}", uploadId, 1)
+                        .param("userId", "owner")
+                        .content("first-"))
+                .andExpect(status().isOk());
+        mockMvc.perform(put("/files/uploads/{id}/parts/{part}", uploadId, 2)
+                        .param("userId", "owner")
+                        .content("second"))
+                .andExpect(status().isOk());
+
+        // Same content as the existing file
+        mockMvc.perform(post("/files/uploads/{id}/complete", uploadId)
+                        .param("userId", "owner"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(put("/files/uploads/{id}/parts/{part}", uploadId, 2)
+                        .param("userId", "owner")
+                        .content("other"))
+                .andExpect(status().isOk());
+
+        var response = mockMvc.perform(post("/files/uploads/{id}/complete", uploadId)
+                        .param("userId", "owner"))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        var fileId = JsonPath.read(response.getResponse().getContentAsString(), "$.url");
+
+        mockMvc.perform(get("/files/{id}", fileId)
+                        .param("userId", "owner"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("first-other"));
+
+        mockMvc.perform(post("/files/uploads/{id}/complete", uploadId)
+                        .param("userId", "owner"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void multipartUpload_shouldBeAborted_whenExpired() throws Exception {
+        var session = mockMvc.perform(post("/files/uploads")
+                        .param("userId", "owner")
+                        .param("fileName", "abandoned.txt"))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        String uploadId = JsonPath.read(session.getResponse().getContentAsString(), "$.uploadId");
+
+        mockMvc.perform(put("/files/uploads/{id}/parts/{part}", uploadId, 1)
+                        .param("userId", "owner")
+                        .content("abandoned"))
+                .andExpect(status().isOk());
+
+        assertThat(uploadSessionService.abortExpired()).isZero();
+
+        mongoTemplate.updateFirst(Query.query(where("inStorageId").is(uploadId)),
+                new Update().set("uploadDate", 0L), FileMetadata.class);
+
+        assertThat(uploadSessionService.abortExpired()).isEqualTo(1);
+
+        mockMvc.perform(post("/files/uploads/{id}/complete", uploadId)
+                        .param("userId", "owner"))
+                .andExpect(status().isNotFound());
+
+        // The file name is free again
+        mockMvc.perform(post("/files")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content("new content")
+                        .param("userId", "owner")
+                        .param("fileName", "abandoned.txt"))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    void abortExpired_shouldDeleteStoredContent_ofInterruptedUpload() throws Exception {
+        // An upload interrupted by a crash after its content was stored
+        FileMetadata metadata = fileMetadataRepository.save(new FileMetadata()
+                .setFileName("interrupted.txt")
+                .setUserId("owner")
+                .setVisibility(PRIVATE)
+                .setUploadDate(0L)
+                .setInStorageId("interrupted-upload")
+                .setStatus(FileStatus.PENDING));
+        fileStorageService.saveFile(new ByteArrayInputStream("stored content".getBytes()), fileKeyFrom(metadata));
+
+        assertThat(uploadSessionService.abortExpired()).isEqualTo(1);
+
+        assertThat(fileMetadataRepository.findById(metadata.getId()))
+                .hasValueSatisfying(aborted -> assertThat(aborted.getStatus()).isEqualTo(FileStatus.DELETED));
+        assertThatThrownBy(() -> fileStorageService.loadFile(fileKeyFrom(metadata)))
+                .isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    void listPublicFiles_shouldContinueFromCursor() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mockMvc.perform(post("/files")
+                            .contentType(MediaType.TEXT_PLAIN)
+                            .content("public content " + i)
+                            .param("userId", "owner")
+                            .param("visibility", "public")
+                            .param("fileName", "public" + i + ".txt"))
+                    .andExpect(status().isCreated());
+        }
+
+        var firstPage = mockMvc.perform(get("/files/public")
+                        .param("size", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.page").value(0))
+                .andExpect(jsonPath("$.data.length()").value(2))
+                .andExpect(jsonPath("$.data[0].fileName").value("public2.txt"))
+                .andExpect(jsonPath("$.next").exists())
+                .andReturn();
+
+        String next = JsonPath.read(firstPage.getResponse().getContentAsString(), "$.next");
+
+        mockMvc.perform(get("/files/public")
+                        .param("size", "2")
+                        .param("cursor", next))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.page").doesNotExist())
+                .andExpect(jsonPath("$.data.length()").value(1))
+                .andExpect(jsonPath("$.data[0].fileName").value("public0.txt"))
+                .andExpect(jsonPath("$.next").doesNotExist());
+
+        mockMvc.perform(get("/files/public")
+                        .param("cursor", "not a cursor"))
+                .andExpect(status().isBadRequest());
+
+        // The cursor holds an upload date, not a file name
+        mockMvc.perform(get("/files/public")
+                        .param("size", "2")
+                        .param("sort", "fileName,asc")
+                        .param("cursor", next))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/files/public")
+                        .param("sort", "fileName,asc"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data[0].fileName").value("public0.txt"));
+
+        // Only indexed fields can be sorted by
+        mockMvc.perform(get("/files/public")
+                        .param("sort", "size,asc"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void listTags_shouldFollowUploadsAndDeletions() throws Exception {
+        var response = mockMvc.perform(post("/files")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content("private content")
+                        .param("userId", "owner")
+                        .param("fileName", "private.txt")
+                        .param("tags", "Private,shared"))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        mockMvc.perform(post("/files")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content("public content")
+                        .param("userId", "owner")
+                        .param("visibility", "public")
+                        .param("fileName", "public.txt")
+                        .param("tags", "public,shared"))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/files/tags").param("userId", "owner"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tags").value(contains("private", "public", "shared")));
+
+        mockMvc.perform(get("/files/tags").param("userId", "other-user"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tags").value(contains("public", "shared")));
+
+        String fileId = JsonPath.read(response.getResponse().getContentAsString(), "$.url");
+        mockMvc.perform(delete("/files/{id}", fileId).param("userId", "owner"))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/files/tags").param("userId", "owner"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tags").value(contains("public", "shared")));
+    }
+
+    @Test
+    void listFiles_shouldFilterByTag_ignoringCase() throws Exception {
+        mockMvc.perform(post("/files")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content("report content")
+                        .param("userId", "owner")
+                        .param("visibility", "public")
+                        .param("fileName", "report.txt")
+                        .param("tags", "Reports"))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/files")
+                        .param("userId", "owner")
+                        .param("tag", "REPORTS"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.length()").value(1))
+                .andExpect(jsonPath("$.data[0].fileName").value("report.txt"));
+
+        mockMvc.perform(get("/files/public")
+                        .param("tag", "rePorts"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.length()").value(1));
+    }
+
+    @Test
+    void rebuildTagCatalog_shouldLowerCaseTags_ofFilesUploadedBeforeNormalization() throws Exception {
+        fileMetadataRepository.save(new FileMetadata()
+                .setFileName("legacy.txt")
+                .setUserId("owner")
+                .setVisibility(PRIVATE)
+                .setTags(Set.of("Legacy", "ÄRGER", "plain"))
+                .setUploadDate(System.currentTimeMillis())
+                .setInStorageId("legacy-file")
+                .setStatus(FileStatus.ACTIVE));
+
+        tagCatalogRepository.rebuild();
+
+        assertThat(fileMetadataRepository.findAll())
+                .singleElement()
+                .extracting(FileMetadata::getTags)
+                .isEqualTo(Set.of("legacy", "ärger", "plain"));
+        mockMvc.perform(get("/files/tags").param("userId", "owner"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tags").value(contains("legacy", "plain", "ärger")));
+        mockMvc.perform(get("/files")
+                        .param("userId", "owner")
+                        .param("tag", "Legacy"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.length()").value(1));
+    }
+
+    @Test
+    void downloadArchive_shouldStreamRequestedFilesAsZip() throws Exception {
+        var text = mockMvc.perform(post("/files")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content("text content")
+                        .param("userId", "owner")
+                        .param("fileName", "text.txt"))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        var binary = mockMvc.perform(post("/files")
+                        .contentType(MediaType.IMAGE_PNG)
+                        .content("binary content")
+                        .param("userId", "owner")
+                        .param("fileName", "image.png"))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        String textId = JsonPath.read(text.getResponse().getContentAsString(), "$.url");
+        String binaryId = JsonPath.read(binary.getResponse().getContentAsString(), "$.url");
+        String ids = "{\"ids\": [\"" + textId + "\", \"" + binaryId + "\"]}";
+
+        var archive = mockMvc.perform(post("/files/archive")
+                        .param("userId", "owner")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(ids))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        byte[] zip = mockMvc.perform(asyncDispatch(archive))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/zip"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(zipInputStream.readAllBytes()));
+            }
+        }
+        assertThat(entries).containsExactly(
+                Map.entry("text.txt", "text content"),
+                Map.entry("image.png", "binary content"));
+
+        mockMvc.perform(post("/files/archive")
+                        .param("userId", "other-user")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(ids))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void downloadArchive_shouldFlattenEntryNames_forGetWithoutBody() throws Exception {
+        for (String fileName : List.of("/etc/passwd", "C:\\Users\\report.txt")) {
+            mockMvc.perform(post("/files")
+                            .contentType(MediaType.TEXT_PLAIN)
+                            .content("content of " + fileName)
+                            .param("userId", "archive-owner")
+                            .param("fileName", fileName))
+                    .andExpect(status().isCreated());
+        }
+
+        var archive = mockMvc.perform(get("/files/archive")
+                        .param("userId", "archive-owner"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        byte[] zip = mockMvc.perform(asyncDispatch(archive))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        assertThat(names).containsExactlyInAnyOrder("etc_passwd", "Users_report.txt");
+    }
+
+    @Test
+    void downloadArchive_shouldStoreLargeIncompressibleFile_withComputedCrc() throws Exception {
+        byte[] content = new byte[8 * 1024 * 1024];
+        new Random(42).nextBytes(content);
+        mockMvc.perform(post("/files")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(content)
+                        .param("userId", "large-archive-owner")
+                        .param("fileName", "random.bin"))
+                .andExpect(status().isCreated());
+
+        var archive = mockMvc.perform(get("/files/archive")
+                        .param("userId", "large-archive-owner"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // The default async timeout of 30s would cut off long archive downloads
+        assertThat(archive.getRequest().getAsyncContext().getTimeout()).isEqualTo(3_600_000L);
+
+        byte[] zip = mockMvc.perform(asyncDispatch(archive))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry = zipInputStream.getNextEntry();
+            assertThat(entry).isNotNull();
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(entry.getCrc()).isEqualTo(crc.getValue());
+            assertThat(zipInputStream.readAllBytes()).isEqualTo(content);
+            assertThat(zipInputStream.getNextEntry()).isNull();
+        }
+    }
+}
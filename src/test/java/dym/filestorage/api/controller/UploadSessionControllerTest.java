@@ -0,0 +1,61 @@
+package dym.filestorage.api.controller;
+
+import dym.filestorage.api.service.UploadAdmissionService;
+import dym.filestorage.api.service.UploadSessionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Duration;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class UploadSessionControllerTest {
+
+    private final UploadSessionService uploadSessionService = mock(UploadSessionService.class);
+    // One upload at a time and no queue, so a running upload rejects all others
+    private final UploadAdmissionService uploadAdmissionService = new UploadAdmissionService(1, 0, Duration.ZERO, 8,
+            0, 0, Duration.ofSeconds(5), new SimpleMeterRegistry());
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        UploadSessionController controller = new UploadSessionController(uploadSessionService, uploadAdmissionService);
+        ReflectionTestUtils.setField(controller, "baseUrl", "");
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new ErrorHandler())
+                .build();
+    }
+
+    @Test
+    void completeUpload_shouldReturn429_whenNotAdmitted() throws Exception {
+        try (var running = uploadAdmissionService.admit("other")) {
+            mockMvc.perform(post("/files/uploads/{uploadId}/complete", "upload").param("userId", "user"))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "5"));
+        }
+        verify(uploadSessionService, never()).complete(anyString(), anyString());
+    }
+
+    @Test
+    void uploadPart_shouldReturn429_whenNotAdmitted() throws Exception {
+        try (var running = uploadAdmissionService.admit("other")) {
+            mockMvc.perform(put("/files/uploads/{uploadId}/parts/{partNumber}", "upload", 1)
+                            .param("userId", "user")
+                            .content(new byte[10]))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "5"));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package dym.filestorage.api.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GroupCommitSyncerTest {
+
+    @TempDir
+    Path dir;
+
+    private final GroupCommitSyncer syncer = new GroupCommitSyncer(Duration.ofMillis(5), 16);
+
+    @AfterEach
+    void tearDown() {
+        syncer.close();
+    }
+
+    @Test
+    void sync_shouldSyncFilesAndDirectories() throws IOException {
+        Path file = Files.writeString(dir.resolve("file"), "content");
+
+        syncer.sync(file);
+        syncer.sync(dir);
+    }
+
+    @Test
+    void sync_shouldCompleteConcurrentRequests() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            files.add(Files.writeString(dir.resolve("file" + i), "content " + i));
+        }
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> syncs = new ArrayList<>();
+            for (Path file : files) {
+                // More requests than a batch holds, most of them for the shared directory
+                syncs.add(executor.submit(() -> {
+                    syncer.sync(file);
+                    syncer.sync(dir);
+                    return null;
+                }));
+            }
+            for (Future<?> sync : syncs) {
+                sync.get();
+            }
+        }
+    }
+
+    @Test
+    void sync_shouldFail_forMissingFile() {
+        assertThatThrownBy(() -> syncer.sync(dir.resolve("missing")))
+                .isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void sync_shouldFail_afterClose() {
+        syncer.close();
+
+        assertThatThrownBy(() -> syncer.sync(dir))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Group commit stopped");
+    }
+
+    @Test
+    void constructor_shouldRejectNonPositiveBatch() {
+        assertThatThrownBy(() -> new GroupCommitSyncer(Duration.ofMillis(5), 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void of_shouldCreateSyncerForDurabilityMode() throws IOException {
+        Path missing = dir.resolve("missing");
+
+        // Left to the OS, nothing is opened
+        FileSyncer.of(DurabilityMode.NONE, Duration.ZERO, 1).sync(missing);
+        assertThatThrownBy(() -> FileSyncer.of(DurabilityMode.FSYNC, Duration.ZERO, 1).sync(missing))
+                .isInstanceOf(NoSuchFileException.class);
+        try (GroupCommitSyncer groupCommit = (GroupCommitSyncer) FileSyncer.of(DurabilityMode.GROUP_COMMIT,
+                Duration.ofMillis(1), 4)) {
+            groupCommit.sync(dir);
+        }
+    }
+
+    @Test
+    void createDirectories_shouldSyncParentsOfCreatedDirectories() throws IOException {
+        List<Path> synced = new ArrayList<>();
+        FileSyncer recording = synced::add;
+
+        recording.createDirectories(dir.resolve("a/b"));
+
+        assertThat(dir.resolve("a/b")).isDirectory();
+        assertThat(synced).containsExactly(dir.resolve("a"), dir);
+
+        synced.clear();
+        recording.createDirectories(dir.resolve("a/b"));
+        assertThat(synced).isEmpty();
+    }
+}
@@ -0,0 +1,114 @@
+package dym.filestorage.api.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PipelinedDigestTest {
+
+    private static final byte[] CONTENT = new byte[100_000];
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    @Test
+    void digest_shouldMatchSequentialDigest() {
+        StreamDigest sequential = StreamDigest.of(StreamDigest.SHA_256);
+        sequential.update(CONTENT, 0, CONTENT.length);
+
+        try (PipelinedDigest pipelined = new PipelinedDigest(StreamDigest.of(StreamDigest.SHA_256), 2)) {
+            // Chunks of varying sizes, more than the pipeline depth, so that buffers are recycled and grown
+            int offset = 0;
+            for (int length = 1; offset < CONTENT.length; length = length * 2 % 8191 + 1) {
+                int chunk = Math.min(length, CONTENT.length - offset);
+                pipelined.update(CONTENT, offset, chunk);
+                offset += chunk;
+            }
+
+            assertThat(pipelined.getAlgorithm()).isEqualTo(StreamDigest.SHA_256);
+            assertThat(pipelined.digest()).isEqualTo(sequential.digest());
+        }
+    }
+
+    @Test
+    void digest_shouldBeSingleUse() {
+        try (PipelinedDigest pipelined = new PipelinedDigest(StreamDigest.of(StreamDigest.CRC32C), 1)) {
+            pipelined.update(CONTENT, 0, 10);
+            pipelined.digest();
+
+            assertThatThrownBy(pipelined::digest).isInstanceOf(IllegalStateException.class);
+            assertThatThrownBy(() -> pipelined.update(CONTENT, 0, 10)).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    void update_shouldFail_whenDigestFails() {
+        StreamDigest failing = new StreamDigest() {
+            @Override
+            public String getAlgorithm() {
+                return "failing";
+            }
+
+            @Override
+            public void update(byte[] b, int off, int len) {
+                throw new IllegalArgumentException("Broken digest");
+            }
+
+            @Override
+            public byte[] digest() {
+                return new byte[0];
+            }
+        };
+
+        try (PipelinedDigest pipelined = new PipelinedDigest(failing, 1)) {
+            assertThatThrownBy(() -> {
+                for (int i = 0; i < 100; i++) {
+                    pipelined.update(CONTENT, 0, 10);
+                }
+            }).isInstanceOf(IllegalStateException.class)
+                    .hasRootCauseMessage("Broken digest");
+        }
+    }
+
+    @Test
+    void close_shouldStopWorker_whenDigestIsAbandoned() throws Exception {
+        CompletableFuture<Thread> worker = new CompletableFuture<>();
+        StreamDigest recording = new StreamDigest() {
+            @Override
+            public String getAlgorithm() {
+                return "recording";
+            }
+
+            @Override
+            public void update(byte[] b, int off, int len) {
+                worker.complete(Thread.currentThread());
+            }
+
+            @Override
+            public byte[] digest() {
+                return new byte[0];
+            }
+        };
+
+        PipelinedDigest pipelined = new PipelinedDigest(recording, 2);
+        pipelined.update(CONTENT, 0, 10);
+        Thread thread = worker.get(5, TimeUnit.SECONDS);
+
+        pipelined.close();
+
+        assertThat(thread.join(Duration.ofSeconds(5))).isTrue();
+    }
+
+    @Test
+    void constructor_shouldRejectNonPositiveDepth() {
+        assertThatThrownBy(() -> new PipelinedDigest(StreamDigest.of(StreamDigest.SHA_256), 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,101 @@
+package dym.filestorage.api.io;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PipelinedFileWriterTest {
+
+    private static final int BUFFER_SIZE = 1024;
+    private static final byte[] CONTENT = new byte[10 * BUFFER_SIZE + 123];
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    @TempDir
+    Path dir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void write_shouldCopyStream(boolean direct) throws IOException {
+        BufferPool pool = pool(direct);
+        Path path = dir.resolve("file");
+
+        long written = new PipelinedFileWriter(pool, 3).write(new ByteArrayInputStream(CONTENT), path);
+
+        assertThat(written).isEqualTo(CONTENT.length);
+        assertThat(Files.readAllBytes(path)).isEqualTo(CONTENT);
+        assertThat(gauge("buffer.pool.in.use")).isZero();
+        assertThat(gauge("buffer.pool.available")).isEqualTo(3);
+    }
+
+    @Test
+    void write_shouldUseSingleBuffer_forSmallStream() throws IOException {
+        BufferPool pool = pool(true);
+        Path path = dir.resolve("file");
+
+        long written = new PipelinedFileWriter(pool, 4).write(new ByteArrayInputStream(new byte[100]), path);
+
+        assertThat(written).isEqualTo(100);
+        assertThat(meterRegistry.get("buffer.pool.acquisitions").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void write_shouldReleaseBuffers_whenStreamFails() {
+        BufferPool pool = pool(true);
+        InputStream failing = new InputStream() {
+            private int remaining = 5 * BUFFER_SIZE;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- == 0) {
+                    throw new IOException("Connection reset");
+                }
+                return 1;
+            }
+        };
+
+        assertThatThrownBy(() -> new PipelinedFileWriter(pool, 2).write(failing, dir.resolve("file")))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Connection reset");
+        assertThat(gauge("buffer.pool.in.use")).isZero();
+    }
+
+    @Test
+    void write_shouldFail_whenFileExists() throws IOException {
+        BufferPool pool = pool(true);
+        Path path = Files.createFile(dir.resolve("file"));
+
+        assertThatThrownBy(() -> new PipelinedFileWriter(pool, 2).write(new ByteArrayInputStream(CONTENT), path))
+                .isInstanceOf(FileAlreadyExistsException.class);
+        assertThat(gauge("buffer.pool.in.use")).isZero();
+    }
+
+    private BufferPool pool(boolean direct) {
+        BufferPool pool = direct
+                ? BufferPool.direct("test", BUFFER_SIZE, 8)
+                : BufferPool.heap("test", BUFFER_SIZE, 8);
+        pool.bindTo(meterRegistry);
+        return pool;
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).gauge().value();
+    }
+}
@@ -0,0 +1,379 @@
+package dym.filestorage.api.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import dym.filestorage.api.persistance.entity.TagCount;
+import dym.filestorage.api.persistance.repository.FileMetadataRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives the file endpoints over HTTP with the mixes of {@link LoadScenario}, against an in-process MongoDB stand-in,
+ * and reports throughput, latency percentiles and allocation rate per scenario.
+ * Results are logged, and written as JSON to target/load-result.json.
+ * <p>
+ * The stand-in keeps metadata in memory, so database latencies are lower than with a real MongoDB:
+ * the numbers are a baseline to compare versions of the service, not a prediction of production throughput.
+ */
+@Slf4j
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class FileControllerLoadTest {
+
+    private static final String LOAD_UPLOADS = "./target/load-uploads";
+    private static final Path RESULT_FILE = Path.of("./target/load-result.json");
+    private static final int UPLOAD_PREFIX_SIZE = 16;
+    private static final List<String> TAGS = List.of("alpha", "beta", "gamma", "delta", "epsilon");
+
+    static MongoServer mongoServer = new MongoServer(new MemoryBackend());
+    static String mongoConnectionString;
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", () -> mongoConnectionString);
+        // The stand-in scans its collections anyway, and not every partial index option is supported by it
+        registry.add("spring.data.mongodb.auto-index-creation", () -> false);
+        registry.add("metadata.verify-query-plans", () -> false);
+        registry.add("storage.local", () -> LOAD_UPLOADS);
+        registry.add("downloads.base-url", () -> "");
+        // The virtual users run as many uploads as the scenario asks for, admission limits would turn them into errors
+        registry.add("uploads.admission.max-concurrent", () -> Integer.MAX_VALUE);
+        registry.add("uploads.admission.per-user.max-concurrent", () -> Integer.MAX_VALUE);
+        // Per-request debug logging would dominate the measurement
+        registry.add("logging.level.dym", () -> "INFO");
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private FileMetadataRepository fileMetadataRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    // Uploads send a unique prefix followed by a slice of the same random bytes, so that every file has its own hash
+    private final byte[] content = randomContent();
+    private final AtomicLong uploadCounter = new AtomicLong();
+    private final Map<String, List<String>> filesByUser = new ConcurrentHashMap<>();
+    private final List<ScenarioResult> results = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeAll
+    public static void beforeAll() {
+        mongoConnectionString = mongoServer.bindAndGetConnectionString();
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        mongoServer.shutdownNow();
+    }
+
+    @TestFactory
+    Stream<DynamicTest> scenarios() {
+        return LoadScenario.fromSystemProperties().stream()
+                .map(scenario -> DynamicTest.dynamicTest(scenario.name(), () -> runScenario(scenario)));
+    }
+
+    private void runScenario(LoadScenario scenario) throws Exception {
+        reset();
+
+        LoadStatistics seedStatistics = new LoadStatistics();
+        seed(scenario, seedStatistics);
+        assertThat(seedStatistics.errors()).as("failed seed uploads").isZero();
+
+        run(scenario, scenario.warmup(), new LoadStatistics());
+
+        LoadStatistics statistics = new LoadStatistics();
+        long allocatedBefore = allocatedBytes();
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long start = System.nanoTime();
+
+        run(scenario, scenario.duration(), statistics);
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000d;
+        var operations = statistics.results(seconds);
+        ScenarioResult result = new ScenarioResult(
+                scenario,
+                seconds,
+                operations.values().stream().mapToLong(LoadStatistics.OperationResult::count).sum() / seconds,
+                Math.max(0, allocatedBytes() - allocatedBefore) / seconds,
+                gcCount() - gcCountBefore,
+                gcMillis() - gcMillisBefore,
+                operations);
+
+        log.info(result.toTable());
+        results.add(result);
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(RESULT_FILE.toFile(), results);
+
+        assertThat(statistics.errors()).as("failed operations").isZero();
+        assertThat(result.throughput()).isPositive();
+    }
+
+    private void seed(LoadScenario scenario, LoadStatistics statistics) throws InterruptedException {
+        try (ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, scenario.concurrency()))) {
+            for (int user = 0; user < scenario.users(); user++) {
+                String userId = userId(user);
+                for (int file = 0; file < scenario.seedFiles(); file++) {
+                    executor.submit(() -> upload(scenario, userId, statistics));
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the scenario's virtual users until the duration is over, each one issuing its next request
+     * as soon as the previous one is answered.
+     */
+    private void run(LoadScenario scenario, Duration duration, LoadStatistics statistics) {
+        long deadline = System.nanoTime() + duration.toNanos();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < scenario.concurrency(); i++) {
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        runOperation(scenario, statistics);
+                    }
+                });
+            }
+        }
+    }
+
+    private void runOperation(LoadScenario scenario, LoadStatistics statistics) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String userId = userId(random.nextInt(scenario.users()));
+
+        int choice = random.nextInt(scenario.uploadWeight() + scenario.downloadWeight() + scenario.listWeight());
+        if (choice < scenario.uploadWeight()) {
+            upload(scenario, userId, statistics);
+        } else if (choice < scenario.uploadWeight() + scenario.downloadWeight()) {
+            download(scenario, userId, statistics);
+        } else {
+            list(scenario, userId, statistics);
+        }
+    }
+
+    private void upload(LoadScenario scenario, String userId, LoadStatistics statistics) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long fileNumber = uploadCounter.incrementAndGet();
+        int size = Math.max(UPLOAD_PREFIX_SIZE, scenario.uploadSizes().get(random.nextInt(scenario.uploadSizes().size())));
+        byte[] prefix = ByteBuffer.allocate(UPLOAD_PREFIX_SIZE).putLong(fileNumber).putLong(System.nanoTime()).array();
+
+        URI uri = uri("/files")
+                .queryParam("fileName", scenario.name() + "-" + fileNumber + ".bin")
+                .queryParam("userId", userId)
+                .queryParam("visibility", fileNumber % 2 == 0 ? "PUBLIC" : "PRIVATE")
+                .queryParam("tags", TAGS.get((int) (fileNumber % TAGS.size())) + "," + TAGS.get(random.nextInt(TAGS.size())))
+                .build().toUri();
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+                .POST(BodyPublishers.concat(
+                        BodyPublishers.ofByteArray(prefix),
+                        BodyPublishers.ofByteArray(content, 0, size - UPLOAD_PREFIX_SIZE)))
+                .build();
+
+        send("upload", request, BodyHandlers.ofString(), statistics, response -> {
+            String inStorageId = objectMapper.readTree(response.body()).path("url").asText();
+            filesByUser.computeIfAbsent(userId, key -> Collections.synchronizedList(new ArrayList<>())).add(inStorageId);
+            return size;
+        });
+    }
+
+    private void download(LoadScenario scenario, String userId, LoadStatistics statistics) {
+        List<String> files = filesByUser.getOrDefault(userId, List.of());
+        if (files.isEmpty()) {
+            // Nothing to read yet, the upload fills the gap
+            upload(scenario, userId, statistics);
+            return;
+        }
+        String inStorageId = files.get(ThreadLocalRandom.current().nextInt(files.size()));
+
+        URI uri = uri("/files/{inStorageId}").queryParam("userId", userId).build(inStorageId);
+        HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+
+        send("download", request, BodyHandlers.discarding(), statistics,
+                response -> response.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(0));
+    }
+
+    /**
+     * Follows the continuation tokens of the user's listing for up to listing depth pages, every page is one operation.
+     */
+    private void list(LoadScenario scenario, String userId, LoadStatistics statistics) {
+        String[] cursor = {null};
+        for (int page = 0; page < scenario.listingDepth(); page++) {
+            UriComponentsBuilder builder = uri("/files")
+                    .queryParam("userId", userId)
+                    .queryParam("size", scenario.pageSize());
+            if (cursor[0] != null) {
+                builder.queryParam("cursor", cursor[0]);
+            }
+            HttpRequest request = HttpRequest.newBuilder(builder.build().toUri()).GET().build();
+
+            boolean succeeded = send("list", request, BodyHandlers.ofString(), statistics, response -> {
+                JsonNode next = objectMapper.readTree(response.body()).path("next");
+                cursor[0] = next.isTextual() ? next.asText() : null;
+                return response.body().length();
+            });
+            if (!succeeded || cursor[0] == null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends the request and records its latency, or a failure if it is not answered with a 2xx status.
+     *
+     * @return true if the request succeeded
+     */
+    private <T> boolean send(String operation,
+                             HttpRequest request,
+                             HttpResponse.BodyHandler<T> bodyHandler,
+                             LoadStatistics statistics,
+                             ResponseHandler<T> responseHandler) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<T> response = httpClient.send(request, bodyHandler);
+            long latency = System.nanoTime() - start;
+            if (response.statusCode() / 100 != 2) {
+                log.debug("{} failed with status {}: {}", operation, response.statusCode(), request.uri());
+                statistics.failure(operation);
+                return false;
+            }
+            statistics.success(operation, latency, responseHandler.handle(response));
+            return true;
+        } catch (IOException e) {
+            log.debug("{} failed: {}", operation, request.uri(), e);
+            statistics.failure(operation);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            statistics.failure(operation);
+            return false;
+        }
+    }
+
+    private UriComponentsBuilder uri(String path) {
+        return UriComponentsBuilder.fromUriString("http://localhost:" + port + "/api").path(path).encode();
+    }
+
+    private void reset() throws IOException {
+        fileMetadataRepository.deleteAll();
+        mongoTemplate.remove(new Query(), TagCount.class);
+        filesByUser.clear();
+        deletePath(Path.of(LOAD_UPLOADS));
+    }
+
+    private void deletePath(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (var files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder())
+                    .forEach(path1 -> {
+                        try {
+                            Files.deleteIfExists(path1);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+        }
+    }
+
+    private static String userId(int user) {
+        return "load-user-" + user;
+    }
+
+    private static byte[] randomContent() {
+        int maxSize = LoadScenario.fromSystemProperties().stream()
+                .flatMap(scenario -> scenario.uploadSizes().stream())
+                .mapToInt(Integer::intValue)
+                .max()
+                .orElse(UPLOAD_PREFIX_SIZE);
+        byte[] bytes = new byte[maxSize];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Bytes allocated so far by all live platform threads. Virtual threads allocate on their carriers,
+     * so their allocations are included.
+     */
+    private static long allocatedBytes() {
+        var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getTotalThreadAllocatedBytes();
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+                .filter(count -> count > 0)
+                .sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .filter(time -> time > 0)
+                .sum();
+    }
+
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+
+        /**
+         * @return the transferred body bytes
+         */
+        long handle(HttpResponse<T> response) throws IOException;
+    }
+}
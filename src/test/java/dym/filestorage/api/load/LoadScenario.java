@@ -0,0 +1,94 @@
+package dym.filestorage.api.load;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * A load mix: how many virtual users run, which upload sizes they pick from,
+ * and how often they upload, download and list compared to each other.
+ *
+ * @param users        distinct user ids the virtual users are spread over
+ * @param seedFiles    files uploaded for each user before the measurement, so that there is something to read
+ * @param listingDepth pages a listing follows through the continuation token
+ */
+public record LoadScenario(
+        String name,
+        int concurrency,
+        int users,
+        List<Integer> uploadSizes,
+        int uploadWeight,
+        int downloadWeight,
+        int listWeight,
+        int listingDepth,
+        int pageSize,
+        int seedFiles,
+        Duration warmup,
+        Duration duration
+) {
+
+    private static final int KB = 1024;
+    private static final int MB = 1024 * KB;
+    private static final Duration DEFAULT_WARMUP = Duration.ofSeconds(5);
+    private static final Duration DEFAULT_DURATION = Duration.ofSeconds(20);
+
+    public static List<LoadScenario> defaults() {
+        return List.of(
+                new LoadScenario("small-uploads", 32, 8, List.of(4 * KB, 16 * KB, 64 * KB),
+                        1, 0, 0, 1, 20, 0, DEFAULT_WARMUP, DEFAULT_DURATION),
+                new LoadScenario("large-uploads", 8, 4, List.of(4 * MB, 16 * MB),
+                        1, 0, 0, 1, 20, 0, DEFAULT_WARMUP, DEFAULT_DURATION),
+                new LoadScenario("download-heavy", 64, 8, List.of(16 * KB, 256 * KB, MB),
+                        1, 8, 1, 1, 20, 50, DEFAULT_WARMUP, DEFAULT_DURATION),
+                new LoadScenario("deep-listing", 16, 4, List.of(4 * KB),
+                        0, 0, 1, 10, 50, 500, DEFAULT_WARMUP, DEFAULT_DURATION),
+                new LoadScenario("mixed", 32, 8, List.of(4 * KB, 64 * KB, MB, 8 * MB),
+                        3, 5, 2, 3, 20, 60, DEFAULT_WARMUP, DEFAULT_DURATION)
+        );
+    }
+
+    /**
+     * Scenarios selected by the load.scenarios system property (all by default),
+     * with the load.* overrides applied to each of them.
+     */
+    public static List<LoadScenario> fromSystemProperties() {
+        String selected = System.getProperty("load.scenarios");
+        return defaults().stream()
+                .filter(scenario -> !hasText(selected) || List.of(selected.split(",")).contains(scenario.name()))
+                .map(LoadScenario::withSystemProperties)
+                .toList();
+    }
+
+    public LoadScenario withSystemProperties() {
+        return new LoadScenario(
+                name,
+                intProperty("load.concurrency", concurrency),
+                intProperty("load.users", users),
+                hasText(System.getProperty("load.upload-sizes"))
+                        ? Arrays.stream(System.getProperty("load.upload-sizes").split(",")).map(String::trim).map(Integer::valueOf).toList()
+                        : uploadSizes,
+                intProperty("load.upload-weight", uploadWeight),
+                intProperty("load.download-weight", downloadWeight),
+                intProperty("load.list-weight", listWeight),
+                intProperty("load.listing-depth", listingDepth),
+                intProperty("load.page-size", pageSize),
+                intProperty("load.seed-files", seedFiles),
+                durationProperty("load.warmup", warmup),
+                durationProperty("load.duration", duration)
+        );
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        return hasText(value) ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    private static Duration durationProperty(String name, Duration defaultValue) {
+        String value = System.getProperty(name);
+        return hasText(value) ? DurationStyle.detectAndParse(value.trim()) : defaultValue;
+    }
+}
@@ -0,0 +1,122 @@
+package dym.filestorage.api.load;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Latencies, error counts and transferred bytes of the operations of one measurement, collected from many threads.
+ */
+public class LoadStatistics {
+
+    private final Map<String, OperationRecorder> operations = new ConcurrentHashMap<>();
+
+    public void success(String operation, long latencyNanos, long bytes) {
+        OperationRecorder recorder = recorder(operation);
+        recorder.record(latencyNanos);
+        recorder.bytes.add(bytes);
+    }
+
+    public void failure(String operation) {
+        recorder(operation).errors.increment();
+    }
+
+    public long errors() {
+        return operations.values().stream().mapToLong(recorder -> recorder.errors.sum()).sum();
+    }
+
+    /**
+     * @return the statistics of every operation, sorted by operation name
+     */
+    public Map<String, OperationResult> results(double seconds) {
+        Map<String, OperationResult> results = new LinkedHashMap<>();
+        operations.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> results.put(entry.getKey(), entry.getValue().result(seconds)));
+        return results;
+    }
+
+    private OperationRecorder recorder(String operation) {
+        return operations.computeIfAbsent(operation, name -> new OperationRecorder());
+    }
+
+    /**
+     * @param throughput      operations per second
+     * @param bytesPerSecond  request and response bodies per second
+     */
+    public record OperationResult(
+            long count,
+            long errors,
+            double throughput,
+            double bytesPerSecond,
+            double meanMillis,
+            double p50Millis,
+            double p90Millis,
+            double p99Millis,
+            double p999Millis,
+            double maxMillis
+    ) {
+    }
+
+    private static class OperationRecorder {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        // Plain growing array, so that recording a latency allocates nothing most of the time
+        private long[] latencies = new long[4096];
+        private int count;
+
+        void record(long latencyNanos) {
+            lock.lock();
+            try {
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = latencyNanos;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        OperationResult result(double seconds) {
+            long[] sorted;
+            lock.lock();
+            try {
+                sorted = Arrays.copyOf(latencies, count);
+            } finally {
+                lock.unlock();
+            }
+            Arrays.sort(sorted);
+
+            double mean = Arrays.stream(sorted).average().orElse(0);
+            return new OperationResult(
+                    sorted.length,
+                    errors.sum(),
+                    sorted.length / seconds,
+                    bytes.sum() / seconds,
+                    millis(mean),
+                    millis(percentile(sorted, 0.5)),
+                    millis(percentile(sorted, 0.9)),
+                    millis(percentile(sorted, 0.99)),
+                    millis(percentile(sorted, 0.999)),
+                    millis(sorted.length == 0 ? 0 : sorted[sorted.length - 1])
+            );
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+
+        private static double millis(double nanos) {
+            return nanos / 1_000_000d;
+        }
+    }
+}
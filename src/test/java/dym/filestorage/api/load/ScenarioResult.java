@@ -0,0 +1,38 @@
+package dym.filestorage.api.load;
+
+import dym.filestorage.api.load.LoadStatistics.OperationResult;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Outcome of one measured scenario.
+ *
+ * @param allocationRate bytes allocated per second by all threads of the JVM, the load generator included
+ * @param gcCount        collections during the measurement
+ * @param gcMillis       time spent in collections during the measurement
+ */
+public record ScenarioResult(
+        LoadScenario scenario,
+        double seconds,
+        double throughput,
+        double allocationRate,
+        long gcCount,
+        long gcMillis,
+        Map<String, OperationResult> operations
+) {
+
+    public String toTable() {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format(Locale.ROOT, "%n=== %s: %.1f ops/s, %.1f MB/s allocated, %d GCs (%d ms) in %.1f s%n",
+                scenario.name(), throughput, allocationRate / (1024 * 1024), gcCount, gcMillis, seconds));
+        table.append(String.format(Locale.ROOT, "%-10s %9s %7s %10s %10s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "errors", "ops/s", "MB/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        operations.forEach((name, result) -> table.append(String.format(Locale.ROOT,
+                "%-10s %9d %7d %10.1f %10.2f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                name, result.count(), result.errors(), result.throughput(), result.bytesPerSecond() / (1024 * 1024),
+                result.meanMillis(), result.p50Millis(), result.p90Millis(), result.p99Millis(), result.p999Millis(),
+                result.maxMillis())));
+        return table.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package dym.filestorage.api.persistance.repository;
+
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.PartialIndexFilter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+@SpringBootTest
+class ObsoleteIndexRemoverIntegrationTest {
+
+    private static final String TEST_UPLOADS = "./target/test-uploads";
+
+    static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:8");
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", mongoDBContainer::getReplicaSetUrl);
+        registry.add("storage.local", () -> TEST_UPLOADS);
+        registry.add("downloads.base-url", () -> "");
+    }
+
+    @Autowired
+    private ObsoleteIndexRemover obsoleteIndexRemover;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeAll
+    public static void beforeAll() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        mongoDBContainer.stop();
+    }
+
+    @Test
+    void run_shouldDropIndexesOfEarlierVersions() {
+        IndexOperations indexOps = mongoTemplate.indexOps(FileMetadata.class);
+        // As created by versions before COMPLETING uploads reserved their names
+        indexOps.createIndex(new Index()
+                .on("userId", Sort.Direction.ASC)
+                .on("fileName", Sort.Direction.ASC)
+                .unique()
+                .partial(PartialIndexFilter.of(where("status").in("PENDING", "ACTIVE")))
+                .named("user_filename_idx"));
+
+        obsoleteIndexRemover.run(null);
+        // Nothing left to drop
+        obsoleteIndexRemover.run(null);
+
+        assertThat(indexOps.getIndexInfo())
+                .extracting(IndexInfo::getName)
+                .doesNotContain("user_filename_idx")
+                .contains("user_reserved_filename_idx");
+    }
+}
@@ -0,0 +1,61 @@
+package dym.filestorage.api.persistance.repository;
+
+import dym.filestorage.api.persistance.entity.FileMetadata;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+@SpringBootTest
+class QueryPlanVerifierIntegrationTest {
+
+    private static final String TEST_UPLOADS = "./target/test-uploads";
+
+    static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:8");
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", mongoDBContainer::getReplicaSetUrl);
+        registry.add("storage.local", () -> TEST_UPLOADS);
+        registry.add("downloads.base-url", () -> "");
+    }
+
+    @Autowired
+    private QueryPlanVerifier queryPlanVerifier;
+
+    @BeforeAll
+    public static void beforeAll() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        mongoDBContainer.stop();
+    }
+
+    @Test
+    void queryShapes_shouldBeIndexBacked() {
+        assertThat(queryPlanVerifier.queryShapes()).isNotEmpty();
+
+        queryPlanVerifier.queryShapes().forEach((shape, query) ->
+                assertThat(QueryPlanVerifier.isCollectionScan(queryPlanVerifier.explain(query)))
+                        .as("Query shape '%s' should use an index", shape)
+                        .isFalse());
+    }
+
+    @Test
+    void findCollectionScans_shouldReportUnindexedQueries() {
+        var unindexed = new QueryPlanVerifier.QueryShape(FileMetadata.class, query(where("contentType").is("text/plain")));
+
+        assertThat(QueryPlanVerifier.isCollectionScan(queryPlanVerifier.explain(unindexed))).isTrue();
+        assertThat(queryPlanVerifier.findCollectionScans()).isEmpty();
+    }
+}
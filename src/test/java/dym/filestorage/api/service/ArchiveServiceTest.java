@@ -0,0 +1,23 @@
+package dym.filestorage.api.service;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArchiveServiceTest {
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "report.pdf|report.pdf",
+            "/etc/passwd|etc_passwd",
+            "\\\\server\\share\\file.txt|server_share_file.txt",
+            "C:\\Windows\\win.ini|Windows_win.ini",
+            "c:/temp/a.txt|temp_a.txt",
+            "dir/sub/file.txt|dir_sub_file.txt",
+            "/|file",
+    })
+    void entryName_shouldNotEscapeExtractionDirectory(String fileName, String entryName) {
+        assertThat(ArchiveService.entryName(fileName)).isEqualTo(entryName);
+    }
+}
@@ -0,0 +1,125 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.io.BufferPool;
+import dym.filestorage.api.io.ByteBufferResource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CachingStorageServiceTest {
+
+    private static final int SENDFILE_MIN_SIZE = 4096;
+
+    @TempDir
+    Path dir;
+
+    private final FileStorageService delegate = mock(FileStorageService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private BufferPool downloadBufferPool;
+    private CachingStorageService cachingStorage;
+
+    @BeforeEach
+    void setUp() {
+        downloadBufferPool = BufferPool.heap("download", 1024, 4);
+        downloadBufferPool.bindTo(meterRegistry);
+        cachingStorage = new CachingStorageService(delegate, 1048576, 65536, SENDFILE_MIN_SIZE,
+                downloadBufferPool, meterRegistry);
+    }
+
+    @Test
+    void loadResource_shouldCacheFileContent() throws IOException {
+        byte[] content = content(1000);
+        when(delegate.loadResource("user/file", "hash")).thenReturn(file(content));
+
+        Resource first = cachingStorage.loadResource("user/file", "hash");
+        Resource second = cachingStorage.loadResource("user/file", "hash");
+
+        assertThat(first).isInstanceOf(ByteBufferResource.class);
+        assertThat(read(first)).isEqualTo(content);
+        assertThat(read(second)).isEqualTo(content);
+        verify(delegate, times(1)).loadResource("user/file", "hash");
+        assertThat(meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void loadResource_shouldCacheStreamContent_throughPooledBuffer() throws IOException {
+        // Larger than the pooled buffer, so it is read in several chunks
+        byte[] content = content(3000);
+        when(delegate.loadResource("user/file", "hash-gzip")).thenReturn(new ByteArrayResource(content));
+
+        Resource resource = cachingStorage.loadResource("user/file", "hash-gzip");
+
+        assertThat(resource).isInstanceOf(ByteBufferResource.class);
+        assertThat(read(resource)).isEqualTo(content);
+        assertThat(meterRegistry.get("buffer.pool.in.use").gauge().value()).isZero();
+    }
+
+    @Test
+    void loadResource_shouldNotCache_filesSentWithSendfile() throws IOException {
+        Resource file = file(content(SENDFILE_MIN_SIZE));
+        when(delegate.loadResource("user/large", "hash")).thenReturn(file);
+
+        assertThat(cachingStorage.loadResource("user/large", "hash")).isSameAs(file);
+        assertThat(cachingStorage.loadResource("user/large", "hash")).isSameAs(file);
+        verify(delegate, times(2)).loadResource("user/large", "hash");
+    }
+
+    @Test
+    void loadResource_shouldBypassCache_withoutContentId() throws IOException {
+        Resource file = file(content(100));
+        when(delegate.loadResource("user/file")).thenReturn(file);
+
+        assertThat(cachingStorage.loadResource("user/file", null)).isSameAs(file);
+    }
+
+    @Test
+    void loadResource_shouldFail_whenContentIsShorterThanItsLength() throws IOException {
+        Resource truncated = new InputStreamResource(new ByteArrayInputStream(new byte[10])) {
+            @Override
+            public long contentLength() {
+                return 100;
+            }
+        };
+        when(delegate.loadResource("user/file", "hash")).thenReturn(truncated);
+
+        assertThatThrownBy(() -> cachingStorage.loadResource("user/file", "hash"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("shorter");
+        assertThat(meterRegistry.get("buffer.pool.in.use").gauge().value()).isZero();
+    }
+
+    private Resource file(byte[] content) throws IOException {
+        return new FileSystemResource(Files.write(dir.resolve("file" + content.length), content));
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] read(Resource resource) throws IOException {
+        try (InputStream inputStream = resource.getInputStream()) {
+            return inputStream.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.io.BufferPool;
+import dym.filestorage.api.io.PipelinedFileWriter;
+import dym.filestorage.api.persistance.entity.BlobReference;
+import dym.filestorage.api.persistance.repository.BlobReferenceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ContentAddressedStorageServiceTest {
+
+    private static final byte[] CONTENT = "Shared content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path storageDir;
+
+    // An in-memory stand-in for the blob_references collection
+    private final Map<String, BlobReference> references = new HashMap<>();
+    private final BlobReferenceRepository repository = mock(BlobReferenceRepository.class);
+    private ContentAddressedStorageService storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        when(repository.existsById(anyString())).thenAnswer(call -> references.containsKey(call.<String>getArgument(0)));
+        when(repository.findById(anyString())).thenAnswer(call -> Optional.ofNullable(references.get(call.<String>getArgument(0))));
+        when(repository.countByHash(anyString())).thenAnswer(call -> references.values().stream()
+                .filter(reference -> reference.getHash().equals(call.getArgument(0)))
+                .count());
+        when(repository.insert(any(BlobReference.class))).thenAnswer(call -> {
+            BlobReference reference = call.getArgument(0);
+            if (references.putIfAbsent(reference.getFileKey(), reference) != null) {
+                throw new DuplicateKeyException(reference.getFileKey());
+            }
+            return reference;
+        });
+        doAnswer(call -> references.remove(call.<String>getArgument(0))).when(repository).deleteById(anyString());
+
+        storage = new ContentAddressedStorageService(storageDir.toString(),
+                new PipelinedFileWriter(BufferPool.direct("test", 4096, 4), 2),
+                path -> {
+                },
+                repository,
+                new StreamDigestFactory("SHA-256", "none", false, 1));
+    }
+
+    @Test
+    void saveFile_shouldStoreIdenticalContentOnce() throws IOException {
+        storage.saveFile(content(), "user/a");
+        storage.saveFile(content(), "user/b");
+
+        assertThat(blobs()).hasSize(1);
+        assertThat(read("user/a")).isEqualTo(CONTENT);
+        assertThat(read("user/b")).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void deleteFile_shouldRemoveBlob_whenLastReferenceIsDeleted() throws IOException {
+        storage.saveFile(content(), "user/a");
+        storage.saveFile(content(), "user/b");
+
+        storage.deleteFile("user/a");
+        assertThat(blobs()).hasSize(1);
+        assertThat(read("user/b")).isEqualTo(CONTENT);
+
+        storage.deleteFile("user/b");
+        assertThat(blobs()).isEmpty();
+    }
+
+    @Test
+    void saveFile_shouldUseSuppliedContentId() throws IOException {
+        storage.saveFile(content(), "user/a", () -> "ab12cd34.gzip");
+
+        assertThat(blobs()).extracting(path -> path.getFileName().toString()).containsExactly("ab12cd34.gzip");
+        assertThat(read("user/a")).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void saveFile_shouldFail_whenFileKeyExists() throws IOException {
+        storage.saveFile(content(), "user/a");
+
+        assertThatThrownBy(() -> storage.saveFile(content(), "user/a"))
+                .isInstanceOf(FileAlreadyExistsException.class);
+        assertThat(blobs()).hasSize(1);
+        assertThat(read("user/a")).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void saveFile_shouldNotLeaveOrphanBlob_whenReferenceCannotBeSaved() throws IOException {
+        when(repository.insert(any(BlobReference.class)))
+                .thenThrow(new DataAccessResourceFailureException("Connection lost"));
+
+        assertThatThrownBy(() -> storage.saveFile(content(), "user/a"))
+                .isInstanceOf(IOException.class)
+                .hasCauseInstanceOf(DataAccessResourceFailureException.class);
+        assertThat(blobs()).isEmpty();
+        assertThat(references).isEmpty();
+        try (Stream<Path> temp = Files.list(storageDir.resolve("tmp"))) {
+            assertThat(temp).isEmpty();
+        }
+    }
+
+    private static InputStream content() {
+        return new ByteArrayInputStream(CONTENT);
+    }
+
+    private byte[] read(String fileKey) throws IOException {
+        try (InputStream inputStream = storage.loadFile(fileKey)) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    private List<Path> blobs() throws IOException {
+        try (Stream<Path> files = Files.walk(storageDir.resolve("blobs"))) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.persistance.repository.CustomMetadataRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class ContentTypeDetectionServiceTest {
+
+    private final ContentTypeDetectionService detectionService = new ContentTypeDetectionService(
+            mock(CustomMetadataRepository.class),
+            mock(FileStorageService.class),
+            mock(FileMetadataCache.class),
+            new FileMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP),
+            1, 10);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        detectionService.shutdown();
+    }
+
+    @Test
+    void sniff_shouldDetectType_fromPrefix() {
+        byte[] pdf = "%PDF-1.7\n%âãÏÓ\n1 0 obj".getBytes(StandardCharsets.ISO_8859_1);
+
+        assertThat(sniff(pdf, "report.pdf")).isEqualTo("application/pdf");
+    }
+
+    @Test
+    void sniff_shouldBeInconclusive_forContainers() throws IOException {
+        byte[] zip = zipPrefix("word/document.xml");
+
+        assertThat(sniff(zip, "archive.zip")).isNull();
+        // Named like an OOXML document, which only the entries can confirm
+        assertThat(sniff(zip, "report.docx")).isNull();
+        assertThat(sniff(zip, "report.odt")).isNull();
+    }
+
+    @Test
+    void sniff_shouldBeInconclusive_forUnknownContent() {
+        assertThat(sniff(new byte[]{0, 1, 2, 3, (byte) 0xFF}, "data")).isNull();
+    }
+
+    private String sniff(byte[] prefix, String fileName) {
+        return detectionService.sniff(CompletableFuture.completedFuture(prefix), fileName).join();
+    }
+
+    // The start of a ZIP file, without the central directory a detector would need
+    private static byte[] zipPrefix(String entryName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry(entryName));
+        zip.write(new byte[512]);
+        zip.flush();
+        return bytes.toByteArray();
+    }
+}
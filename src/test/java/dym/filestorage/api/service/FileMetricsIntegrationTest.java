@@ -0,0 +1,168 @@
+package dym.filestorage.api.service;
+
+import com.jayway.jsonpath.JsonPath;
+import dym.filestorage.api.common.FileStatus;
+import dym.filestorage.api.dto.UploadRequest;
+import dym.filestorage.api.persistance.repository.FileMetadataRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.testcontainers.containers.MongoDBContainer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import static dym.filestorage.api.config.StorageMetricsPostProcessor.STORAGE_OPERATION;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The meters of the running application, and the storage behind the metrics proxy.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class FileMetricsIntegrationTest {
+
+    private static final String TEST_UPLOADS = "./target/test-uploads";
+    private static final String CONTENT = "metered content";
+
+    static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:8");
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", mongoDBContainer::getReplicaSetUrl);
+        registry.add("storage.local", () -> TEST_UPLOADS);
+        registry.add("downloads.base-url", () -> "");
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private LocalStorageService localStorageService;
+
+    @Autowired
+    private FileMetadataRepository fileMetadataRepository;
+
+    @Autowired
+    private FileService fileService;
+
+    @BeforeAll
+    public static void beforeAll() {
+        mongoDBContainer.start();
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        mongoDBContainer.stop();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        fileMetadataRepository.deleteAll();
+        try (var files = Files.walk(Path.of(TEST_UPLOADS))) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    void fileOperations_shouldBeMeasured() throws Exception {
+        var upload = mockMvc.perform(post("/files")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content(CONTENT)
+                        .param("userId", "owner")
+                        .param("fileName", "metered.txt"))
+                .andExpect(status().isCreated())
+                .andReturn();
+        String fileId = JsonPath.read(upload.getResponse().getContentAsString(), "$.url");
+
+        mockMvc.perform(get("/files/{id}", fileId).param("userId", "owner"))
+                .andExpect(status().isOk());
+        mockMvc.perform(delete("/files/{id}", fileId).param("userId", "owner"))
+                .andExpect(status().isNoContent());
+
+        for (String operation : new String[]{"upload", "get", "delete"}) {
+            assertThat(meterRegistry.get(FileMetrics.OPERATION).tag("operation", operation).timer().count())
+                    .as("file operation %s", operation)
+                    .isEqualTo(1);
+        }
+        for (String stage : new String[]{"pending-save", "store", "hash", "activate"}) {
+            assertThat(meterRegistry.get(FileMetrics.UPLOAD_STAGE).tag("stage", stage).timer().count())
+                    .as("upload stage %s", stage)
+                    .isEqualTo(1);
+        }
+        for (String operation : new String[]{"saveFile", "loadResource", "deleteFile"}) {
+            assertThat(meterRegistry.get(STORAGE_OPERATION)
+                    .tag("operation", operation)
+                    .tag("storage", LocalStorageService.class.getSimpleName())
+                    .timer().count())
+                    .as("storage operation %s", operation)
+                    .isPositive();
+        }
+
+        assertThat(meterRegistry.get("file.upload.bytes").counter().count()).isEqualTo(CONTENT.length());
+        assertThat(meterRegistry.get("file.upload.size").summary().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("file.uploads.in.flight").gauge().value()).isZero();
+    }
+
+    @Test
+    void upload_shouldFail_whenStoringThrowsRuntimeException() {
+        InputStream failing = new SequenceInputStream(new ByteArrayInputStream(CONTENT.getBytes()), new InputStream() {
+            @Override
+            public int read() {
+                throw new IllegalStateException("Decoder failed");
+            }
+        });
+        UploadRequest uploadRequest = new UploadRequest("owner", "failing.txt", null, null);
+
+        assertThatThrownBy(() -> fileService.uploadFile(failing, MediaType.TEXT_PLAIN_VALUE, uploadRequest))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(fileMetadataRepository.findAll())
+                .singleElement()
+                .satisfies(metadata -> assertThat(metadata.getStatus()).isEqualTo(FileStatus.FAILED));
+        assertThat(meterRegistry.get("file.upload.failures").tag("reason", "error").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("file.uploads.in.flight").gauge().value()).isZero();
+    }
+
+    @Test
+    void localStorage_shouldWork_throughMetricsProxy() throws IOException {
+        assertThat(AopUtils.isCglibProxy(localStorageService)).isTrue();
+
+        // Package-private methods reach the target, whose fields the proxy does not have
+        Path location = localStorageService.getLocation();
+        assertThat(location).isEqualTo(Path.of(TEST_UPLOADS).toAbsolutePath().normalize());
+        assertThat(localStorageService.getShardLevels()).isEqualTo(2);
+
+        Files.createDirectories(location.resolve("owner"));
+        Files.writeString(location.resolve("owner/legacy"), CONTENT);
+        assertThat(localStorageService.migrate("owner/legacy")).isTrue();
+        try (var inputStream = localStorageService.loadFile("owner/legacy")) {
+            assertThat(new String(inputStream.readAllBytes())).isEqualTo(CONTENT);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.persistance.repository.CustomMetadataRepository;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HashAlgorithmGuardTest {
+
+    private final CustomMetadataRepository repository = mock(CustomMetadataRepository.class);
+
+    @Test
+    void shouldStart_withStoredAlgorithm() {
+        when(repository.recordHashAlgorithm("SHA-256")).thenReturn("SHA-256");
+
+        assertThatCode(() -> new HashAlgorithmGuard(repository, digestFactory("SHA-256"))).doesNotThrowAnyException();
+    }
+
+    @Test
+    void shouldRefuseToStart_withOtherAlgorithm() {
+        when(repository.recordHashAlgorithm("SHA-512")).thenReturn("SHA-256");
+
+        assertThatThrownBy(() -> new HashAlgorithmGuard(repository, digestFactory("SHA-512")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("SHA-256");
+    }
+
+    private static StreamDigestFactory digestFactory(String hashAlgorithm) {
+        return new StreamDigestFactory(hashAlgorithm, "none", false, 1);
+    }
+}
@@ -0,0 +1,189 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.helper.FileHelper;
+import dym.filestorage.api.io.BufferPool;
+import dym.filestorage.api.io.FileSyncer;
+import dym.filestorage.api.io.MappedFileRegistry;
+import dym.filestorage.api.io.MappedFileResource;
+import dym.filestorage.api.io.PipelinedFileWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LocalStorageServiceTest {
+
+    private static final byte[] CONTENT = new byte[32768];
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    @TempDir
+    Path storageDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private MappedFileRegistry mappedFileRegistry;
+    private LocalStorageService storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mappedFileRegistry = new MappedFileRegistry(16384, 1048576, Duration.ofMinutes(10));
+        mappedFileRegistry.bindTo(meterRegistry);
+        storage = storage(path -> {
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        mappedFileRegistry.close();
+    }
+
+    @Test
+    void loadResource_shouldMapFile_onlyWhenStreamIsOpened() throws IOException {
+        storage.saveFile(new ByteArrayInputStream(CONTENT), "user/file");
+
+        Resource resource = storage.loadResource("user/file");
+        assertThat(resource).isInstanceOf(MappedFileResource.class);
+        assertThat(resource.contentLength()).isEqualTo(CONTENT.length);
+        assertThat(mappedFiles()).isZero();
+
+        try (InputStream inputStream = resource.getInputStream()) {
+            assertThat(mappedFiles()).isEqualTo(1);
+            assertThat(inputStream.readAllBytes()).isEqualTo(CONTENT);
+        }
+    }
+
+    @Test
+    void deleteFile_shouldDropMapping() throws IOException {
+        storage.saveFile(new ByteArrayInputStream(CONTENT), "user/file");
+        InputStream inputStream = storage.loadResource("user/file").getInputStream();
+        assertThat(mappedFiles()).isEqualTo(1);
+
+        storage.deleteFile("user/file");
+
+        assertThat(mappedFiles()).isZero();
+        assertThat(meterRegistry.get("mapped.files.bytes").gauge().value()).isZero();
+        // A stream opened before the deletion keeps reading from the dropped mapping
+        try (inputStream) {
+            assertThat(inputStream.readAllBytes()).isEqualTo(CONTENT);
+        }
+    }
+
+    @Test
+    void loadResource_shouldNotMapFiles_outsideSizeBand() throws IOException {
+        storage.saveFile(new ByteArrayInputStream(new byte[100]), "user/small");
+
+        Resource resource = storage.loadResource("user/small");
+        try (InputStream inputStream = resource.getInputStream()) {
+            assertThat(inputStream.readAllBytes()).hasSize(100);
+        }
+        assertThat(resource).isNotInstanceOf(MappedFileResource.class);
+        assertThat(mappedFiles()).isZero();
+    }
+
+    @Test
+    void saveFile_shouldSyncContentBeforeDirectory() throws IOException {
+        List<Path> synced = new ArrayList<>();
+        LocalStorageService syncing = storage(synced::add);
+
+        syncing.saveFile(new ByteArrayInputStream(CONTENT), "user/file");
+
+        Path path = pathOf("user/file");
+        // The created shard directories, the temporary file, then the directory holding the new entry
+        assertThat(synced).containsExactly(path.getParent().getParent(), path.getParent().getParent().getParent(),
+                storageDir, synced.get(3), path.getParent());
+        assertThat(synced.get(3).getParent()).isEqualTo(storageDir.resolve(".tmp"));
+        assertThat(Files.readAllBytes(path)).isEqualTo(CONTENT);
+        assertThat(tempFiles()).isEmpty();
+    }
+
+    @Test
+    void saveFile_shouldNotReplaceExistingFile() throws IOException {
+        storage.saveFile(new ByteArrayInputStream(CONTENT), "user/file");
+
+        assertThatThrownBy(() -> storage.saveFile(new ByteArrayInputStream(new byte[10]), "user/file"))
+                .isInstanceOf(FileAlreadyExistsException.class);
+        assertThat(Files.readAllBytes(pathOf("user/file"))).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void saveFile_shouldNotReplaceFileStoredConcurrently() throws IOException {
+        Path path = pathOf("user/file");
+        // Another upload of the key completes while this one syncs its temporary file
+        LocalStorageService racing = storage(synced -> {
+            if (synced.getParent().equals(storageDir.resolve(".tmp"))) {
+                Files.writeString(path, "concurrent");
+            }
+        });
+
+        assertThatThrownBy(() -> racing.saveFile(new ByteArrayInputStream(CONTENT), "user/file"))
+                .isInstanceOf(FileAlreadyExistsException.class);
+        assertThat(Files.readString(path)).isEqualTo("concurrent");
+        assertThat(tempFiles()).isEmpty();
+    }
+
+    @Test
+    void saveFile_shouldRecreateTempDirectory() throws IOException {
+        Files.delete(storageDir.resolve(".tmp"));
+
+        storage.saveFile(new ByteArrayInputStream(CONTENT), "user/file");
+
+        assertThat(Files.readAllBytes(pathOf("user/file"))).isEqualTo(CONTENT);
+        assertThat(tempFiles()).isEmpty();
+    }
+
+    @Test
+    void saveFile_shouldDeleteTempFile_whenStreamFails() throws IOException {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+
+        assertThatThrownBy(() -> storage.saveFile(failing, "user/file"))
+                .isInstanceOf(IOException.class)
+                .hasRootCauseMessage("Connection reset");
+        assertThat(pathOf("user/file")).doesNotExist();
+        assertThat(tempFiles()).isEmpty();
+    }
+
+    private LocalStorageService storage(FileSyncer fileSyncer) throws IOException {
+        return new LocalStorageService(storageDir.toString(), 2, false,
+                new PipelinedFileWriter(BufferPool.direct("test", 4096, 4), 2),
+                fileSyncer,
+                mappedFileRegistry);
+    }
+
+    private Path pathOf(String fileKey) {
+        return storageDir.resolve(FileHelper.shardedKeyFrom(fileKey, 2));
+    }
+
+    private List<Path> tempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(storageDir.resolve(".tmp"))) {
+            return files.toList();
+        }
+    }
+
+    private double mappedFiles() {
+        return meterRegistry.get("mapped.files.count").gauge().value();
+    }
+}
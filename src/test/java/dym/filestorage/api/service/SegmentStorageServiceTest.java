@@ -0,0 +1,243 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.config.StorageMetricsPostProcessor;
+import dym.filestorage.api.io.BufferPool;
+import dym.filestorage.api.io.FileRegionResource;
+import dym.filestorage.api.io.MappedFileRegistry;
+import dym.filestorage.api.io.PipelinedFileWriter;
+import dym.filestorage.api.io.SegmentFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentStorageServiceTest {
+
+    // Two records per segment, so that a few files fill several of them
+    private static final long MAX_SEGMENT_SIZE = 64;
+
+    @TempDir
+    Path storageDir;
+
+    private final List<SegmentStorageService> services = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (SegmentStorageService service : services) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void loadSegments_shouldDropIncompleteAppend_afterCrash() throws IOException {
+        SegmentStorageService storage = start();
+        storage.saveFile(content("first"), "user/a");
+        storage.saveFile(content("second"), "user/b");
+
+        // An append interrupted by a crash leaves a partial record at the end of the active segment
+        Path activeSegment = segmentFiles(".seg").getLast();
+        long validSize = Files.size(activeSegment);
+        Files.write(activeSegment, new byte[]{0x53, 0x45, 0x47, 0x31, 1, 0}, StandardOpenOption.APPEND);
+
+        SegmentStorageService restarted = start();
+        assertThat(Files.size(activeSegment)).isEqualTo(validSize);
+        assertThat(read(restarted, "user/a")).isEqualTo("first");
+        assertThat(read(restarted, "user/b")).isEqualTo("second");
+
+        restarted.saveFile(content("third"), "user/c");
+        assertThat(read(start(), "user/c")).isEqualTo("third");
+    }
+
+    @Test
+    void loadSegments_shouldUseHints_ofSealedSegments() throws IOException {
+        SegmentStorageService storage = start();
+        for (int i = 0; i < 10; i++) {
+            storage.saveFile(content("content " + i), "user/" + i);
+        }
+        storage.deleteFile("user/3");
+        storage.writeHints();
+
+        List<Path> segments = segmentFiles(".seg");
+        assertThat(segments).hasSizeGreaterThan(2);
+        // Every segment but the active one has a hint
+        assertThat(segmentFiles(".hint")).hasSize(segments.size() - 1);
+
+        SegmentStorageService restarted = start();
+        for (int i = 0; i < 10; i++) {
+            if (i != 3) {
+                assertThat(read(restarted, "user/" + i)).isEqualTo("content " + i);
+            }
+        }
+        assertThatThrownBy(() -> restarted.loadResource("user/3")).isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    void loadSegments_shouldScanSegment_whenHintIsCorrupt() throws IOException {
+        SegmentStorageService storage = start();
+        for (int i = 0; i < 10; i++) {
+            storage.saveFile(content("content " + i), "user/" + i);
+        }
+        storage.writeHints();
+
+        for (Path hint : segmentFiles(".hint")) {
+            byte[] bytes = Files.readAllBytes(hint);
+            Files.write(hint, Arrays.copyOf(bytes, bytes.length - 1));
+        }
+
+        SegmentStorageService restarted = start();
+        for (int i = 0; i < 10; i++) {
+            assertThat(read(restarted, "user/" + i)).isEqualTo("content " + i);
+        }
+    }
+
+    @Test
+    void compact_shouldMoveLiveBlobs_andRemoveSegment() throws IOException {
+        SegmentStorageService storage = start();
+        for (int i = 0; i < 10; i++) {
+            storage.saveFile(content("content " + i), "user/" + i);
+        }
+        storage.writeHints();
+        Path firstSegment = segmentFiles(".seg").getFirst();
+        for (int i = 0; i < 10; i += 2) {
+            storage.deleteFile("user/" + i);
+        }
+
+        storage.compact();
+
+        assertThat(firstSegment).doesNotExist();
+        assertThat(firstSegment.resolveSibling(firstSegment.getFileName().toString().replace(".seg", ".hint")))
+                .doesNotExist();
+        for (int i = 1; i < 10; i += 2) {
+            assertThat(read(storage, "user/" + i)).isEqualTo("content " + i);
+        }
+
+        SegmentStorageService restarted = start();
+        for (int i = 0; i < 10; i++) {
+            if (i % 2 == 0) {
+                int deleted = i;
+                assertThatThrownBy(() -> restarted.loadResource("user/" + deleted))
+                        .isInstanceOf(FileNotFoundException.class);
+            } else {
+                assertThat(read(restarted, "user/" + i)).isEqualTo("content " + i);
+            }
+        }
+    }
+
+    @Test
+    void retire_shouldKeepChannelOpen_untilStreamsAreClosed() throws IOException {
+        Path path = storageDir.resolve("segment-00000001.seg");
+        SegmentFile segment = SegmentFile.open(1, path);
+        SegmentFile.Entry entry = segment.append(SegmentFile.BLOB, "user/a", 5,
+                ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)));
+        var resource = new FileRegionResource(segment, entry.dataOffset(), 5, "user/a");
+
+        InputStream stream = resource.getInputStream();
+        segment.retire();
+        assertThat(segment.isOpen()).isTrue();
+        assertThat(new String(stream.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("hello");
+
+        stream.close();
+        assertThat(segment.isOpen()).isFalse();
+        assertThatThrownBy(resource::getInputStream).isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    void segment_shouldStayUsable_afterReaderIsInterrupted() throws IOException {
+        SegmentStorageService storage = start();
+        storage.saveFile(content("first"), "user/a");
+
+        // An interrupted reader, e.g. a cancelled download, closes the channel it is blocked in
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> read(storage, "user/a")).isInstanceOf(ClosedByInterruptException.class);
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertThat(read(storage, "user/a")).isEqualTo("first");
+        storage.saveFile(content("second"), "user/b");
+        assertThat(read(storage, "user/b")).isEqualTo("second");
+    }
+
+    @Test
+    void proxiedStorage_shouldReachTarget_andShutDown() throws IOException {
+        SegmentStorageService storage;
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.registerBean(StorageMetricsPostProcessor.class);
+            context.registerBean(SegmentStorageService.class, () -> {
+                try {
+                    return newService();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            context.refresh();
+
+            storage = context.getBean(SegmentStorageService.class);
+            assertThat(AopUtils.isCglibProxy(storage)).isTrue();
+            storage.saveFile(content("first"), "user/a");
+            // Package-private methods reach the target, whose fields the proxy does not have
+            storage.writeHints();
+            storage.compact();
+            assertThat(read(storage, "user/a")).isEqualTo("first");
+        }
+
+        // The @PreDestroy method closed the segments of the target
+        assertThatThrownBy(() -> read(storage, "user/a"))
+                .isInstanceOf(IOException.class);
+    }
+
+    private SegmentStorageService start() throws IOException {
+        SegmentStorageService service = newService();
+        services.add(service);
+        return service;
+    }
+
+    private SegmentStorageService newService() throws IOException {
+        return new SegmentStorageService(storageDir.toString(), 2, 1024, MAX_SEGMENT_SIZE,
+                0.5, Duration.ofHours(1),
+                new PipelinedFileWriter(BufferPool.direct("test", 4096, 4), 2),
+                path -> {
+                },
+                new MappedFileRegistry(0, 0, Duration.ofSeconds(30)));
+    }
+
+    private static InputStream content(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(FileStorageService storage, String fileKey) throws IOException {
+        try (InputStream inputStream = storage.loadFile(fileKey)) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private List<Path> segmentFiles(String extension) throws IOException {
+        try (Stream<Path> files = Files.list(storageDir.resolve("segments"))) {
+            return files.filter(path -> path.getFileName().toString().endsWith(extension))
+                    .sorted()
+                    .toList();
+        }
+    }
+}
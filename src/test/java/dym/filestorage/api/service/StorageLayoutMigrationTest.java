@@ -0,0 +1,154 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.helper.FileHelper;
+import dym.filestorage.api.io.BufferPool;
+import dym.filestorage.api.io.MappedFileRegistry;
+import dym.filestorage.api.io.PipelinedFileWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StorageLayoutMigrationTest {
+
+    private static final int SHARD_LEVELS = 2;
+    private static final int FILES = 200;
+
+    @TempDir
+    Path storageDir;
+
+    private MappedFileRegistry mappedFileRegistry;
+    private LocalStorageService storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mappedFileRegistry = new MappedFileRegistry(16384, 1048576, Duration.ofMinutes(10));
+        storage = storage(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        mappedFileRegistry.close();
+    }
+
+    @Test
+    void storage_shouldFindFiles_inBothLayouts() throws IOException {
+        storeFlat("user/legacy", "legacy content");
+
+        assertThatThrownBy(() -> storage.saveFile(new ByteArrayInputStream(new byte[1]), "user/legacy"))
+                .isInstanceOf(FileAlreadyExistsException.class);
+
+        assertThat(storage.migrate("user/legacy")).isTrue();
+        assertThat(storageDir.resolve("user/legacy")).doesNotExist();
+        assertThat(read("user/legacy")).isEqualTo("legacy content");
+        assertThat(storage.migrate("user/legacy")).isFalse();
+
+        storage.deleteFile("user/legacy");
+        assertThat(storageDir.resolve(FileHelper.shardedKeyFrom("user/legacy", SHARD_LEVELS))).doesNotExist();
+    }
+
+    @Test
+    void loadResource_shouldMoveFile_fromFlatLayout() throws IOException {
+        storeFlat("user/legacy", "legacy content");
+
+        // Opened later, when the migration might have moved it
+        var resource = storage.loadResource("user/legacy");
+
+        assertThat(storageDir.resolve("user/legacy")).doesNotExist();
+        try (InputStream inputStream = resource.getInputStream()) {
+            assertThat(new String(inputStream.readAllBytes())).isEqualTo("legacy content");
+        }
+        assertThat(read("user/legacy")).isEqualTo("legacy content");
+    }
+
+    @Test
+    void loadResource_shouldLeaveFile_inFlatLayout_withoutMigration() throws IOException {
+        storeFlat("user/legacy", "legacy content");
+        storage = storage(false);
+
+        var resource = storage.loadResource("user/legacy");
+
+        assertThat(storageDir.resolve("user/legacy")).exists();
+        assertThat(storageDir.resolve(FileHelper.shardedKeyFrom("user/legacy", SHARD_LEVELS))).doesNotExist();
+        try (InputStream inputStream = resource.getInputStream()) {
+            assertThat(new String(inputStream.readAllBytes())).isEqualTo("legacy content");
+        }
+    }
+
+    @Test
+    void deleteFile_shouldDeleteFile_inFlatLayout() throws IOException {
+        storeFlat("user/legacy", "legacy content");
+
+        storage.deleteFile("user/legacy");
+
+        assertThat(storageDir.resolve("user/legacy")).doesNotExist();
+        assertThat(storage.migrate("user/legacy")).isFalse();
+    }
+
+    @Test
+    void run_shouldMigrateFiles_whileTheyAreRead() throws Exception {
+        for (int i = 0; i < FILES; i++) {
+            storeFlat("user" + i % 4 + "/file" + i, "content " + i);
+        }
+        StorageLayoutMigration migration = new StorageLayoutMigration(storage, 2000);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            migration.run(null);
+            // Reads every file over and over while the files move between the layouts
+            Future<Integer> reads = executor.submit(() -> {
+                int passes = 0;
+                do {
+                    for (int i = 0; i < FILES; i++) {
+                        assertThat(read("user" + i % 4 + "/file" + i)).isEqualTo("content " + i);
+                    }
+                    passes++;
+                } while (migration.isRunning());
+                return passes;
+            });
+
+            assertThat(reads.get(30, TimeUnit.SECONDS)).isPositive();
+        }
+
+        assertThat(migration.isRunning()).isFalse();
+        for (int i = 0; i < FILES; i++) {
+            String fileKey = "user" + i % 4 + "/file" + i;
+            assertThat(storageDir.resolve(fileKey)).doesNotExist();
+            assertThat(storageDir.resolve(FileHelper.shardedKeyFrom(fileKey, SHARD_LEVELS))).hasContent("content " + i);
+        }
+    }
+
+    private LocalStorageService storage(boolean migrationEnabled) throws IOException {
+        return new LocalStorageService(storageDir.toString(), SHARD_LEVELS, migrationEnabled,
+                new PipelinedFileWriter(BufferPool.direct("test", 4096, 4), 2),
+                path -> {
+                },
+                mappedFileRegistry);
+    }
+
+    private void storeFlat(String fileKey, String content) throws IOException {
+        Path path = storageDir.resolve(fileKey);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+    }
+
+    private String read(String fileKey) throws IOException {
+        try (InputStream inputStream = storage.loadFile(fileKey)) {
+            return new String(inputStream.readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package dym.filestorage.api.service;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StreamDigestFactoryTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"SHA-256", "SHA-512", "SHA3-256"})
+    void constructor_shouldAcceptCryptographicHashes(String algorithm) {
+        StreamDigestFactory factory = new StreamDigestFactory(algorithm, "CRC32C", false, 1);
+
+        assertThat(factory.getHashAlgorithm()).isEqualTo(algorithm);
+        assertThat(factory.newHash().getAlgorithm()).isEqualTo(algorithm);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"CRC32C", "CRC32", "ADLER32", "MD5", "SHA-1"})
+    void constructor_shouldRejectChecksumsAndWeakHashes_forHash(String algorithm) {
+        assertThatThrownBy(() -> new StreamDigestFactory(algorithm, "CRC32C", false, 1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining(algorithm);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"CRC32C", "CRC32", "ADLER32"})
+    void constructor_shouldAcceptChecksums_forChecksum(String algorithm) {
+        StreamDigestFactory factory = new StreamDigestFactory("SHA-256", algorithm, false, 1);
+
+        assertThat(factory.getChecksumAlgorithm()).isEqualTo(algorithm);
+    }
+}
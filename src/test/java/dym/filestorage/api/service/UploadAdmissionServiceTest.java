@@ -0,0 +1,78 @@
+package dym.filestorage.api.service;
+
+import dym.filestorage.api.exception.UploadRejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UploadAdmissionServiceTest {
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(7);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void admit_shouldReject_whenUserHasTooManyUploads() {
+        UploadAdmissionService admissionService = admissionService(10, 2, 0);
+
+        try (var first = admissionService.admit("user");
+             var second = admissionService.admit("user")) {
+            assertThatThrownBy(() -> admissionService.admit("user"))
+                    .isInstanceOfSatisfying(UploadRejectedException.class,
+                            e -> assertThat(e.getRetryAfter()).isEqualTo(RETRY_AFTER));
+            // Other users are not affected
+            admissionService.admit("other").close();
+        }
+        admissionService.admit("user").close();
+        assertThat(rejections("user-limit")).isEqualTo(1);
+    }
+
+    @Test
+    void admit_shouldReject_whenQueueIsFull() {
+        UploadAdmissionService admissionService = admissionService(1, 8, 0);
+
+        try (var running = admissionService.admit("user")) {
+            assertThatThrownBy(() -> admissionService.admit("other"))
+                    .isInstanceOf(UploadRejectedException.class);
+        }
+        admissionService.admit("other").close();
+        assertThat(rejections("queue-full")).isEqualTo(1);
+        assertThat(meterRegistry.get("upload.admission.active").gauge().value()).isZero();
+    }
+
+    @Test
+    void throttle_shouldLimitBytesPerSecond_acrossUploadsOfUser() throws IOException {
+        // 20 KB burst, then 100 KB per second
+        UploadAdmissionService admissionService = new UploadAdmissionService(10, 10, Duration.ofSeconds(1), 8,
+                100_000, 20_000, RETRY_AFTER, meterRegistry);
+
+        long start = System.nanoTime();
+        try (var first = admissionService.admit("user");
+             var second = admissionService.admit("user");
+             InputStream firstStream = first.throttle(new ByteArrayInputStream(new byte[30_000]));
+             InputStream secondStream = second.throttle(new ByteArrayInputStream(new byte[30_000]))) {
+            assertThat(firstStream.readAllBytes()).hasSize(30_000);
+            assertThat(secondStream.readAllBytes()).hasSize(30_000);
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        // 60 KB minus the burst at 100 KB per second
+        assertThat(elapsed).isGreaterThanOrEqualTo(Duration.ofMillis(350));
+    }
+
+    private UploadAdmissionService admissionService(int maxConcurrent, int maxPerUser, int maxQueued) {
+        return new UploadAdmissionService(maxConcurrent, maxQueued, Duration.ofMillis(100), maxPerUser,
+                0, 0, RETRY_AFTER, meterRegistry);
+    }
+
+    private double rejections(String reason) {
+        return meterRegistry.get("upload.admission.rejections").tag("reason", reason).counter().count();
+    }
+}